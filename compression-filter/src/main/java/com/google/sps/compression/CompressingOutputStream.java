@@ -0,0 +1,212 @@
+package com.google.sps.compression;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+/**
+ * Output stream of a CompressingResponse. The first minSize bytes are
+ * buffered; once more are written the response is compressed, if its
+ * content type allows, and everything after streams through the Deflater.
+ * A response that ends within the buffer is sent as it is.
+ *
+ * Flushes before the buffer fills are ignored, so small responses can still
+ * be sent with their length. After that, a flush pushes out everything
+ * compressed so far.
+ */
+final class CompressingOutputStream extends ServletOutputStream {
+
+    private static final int DEFLATE_BUFFER_SIZE = 8192;
+    private static final byte[] GZIP_HEADER = {
+        0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff
+    };
+
+    private final CompressingResponse response;
+    /** Bytes written before the response started; null once started */
+    private byte[] buffer;
+    private int count;
+    /** The stream of the wrapped response, once started */
+    private OutputStream out;
+    private DeflaterPool pool;
+    private Deflater deflater;
+    private DeflaterOutputStream deflaterOut;
+    /** Checksum and length of the uncompressed data, for the gzip trailer */
+    private CRC32 crc;
+    private long uncompressedSize;
+    private boolean closed;
+
+    CompressingOutputStream(CompressingResponse response, int minSize) {
+        this.response = response;
+        this.buffer = new byte[minSize];
+    }
+
+    boolean isStarted() {
+        return buffer == null;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (buffer != null && count < buffer.length) {
+            buffer[count++] = (byte) b;
+            return;
+        }
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (buffer != null) {
+            if (count + len <= buffer.length) {
+                System.arraycopy(b, off, buffer, count, len);
+                count += len;
+                return;
+            }
+            start(true, -1);
+        }
+        writeThrough(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (buffer != null || closed) {
+            return;
+        }
+        if (deflaterOut != null) {
+            deflaterOut.flush();
+        } else {
+            out.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        if (buffer != null) {
+            start(false, count);
+        }
+        closed = true;
+        if (deflaterOut != null) {
+            try {
+                deflaterOut.finish();
+                if (crc != null) {
+                    writeInt((int) crc.getValue());
+                    writeInt((int) uncompressedSize);
+                }
+            } finally {
+                releaseDeflater();
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Sends the buffered bytes uncompressed and writes through from now
+     * on, keeping the content length the servlet declared.
+     */
+    void startUncompressed() throws IOException {
+        if (buffer != null) {
+            start(false, -1);
+        }
+    }
+
+    /** Drops the bytes written so far, if the response has not started. */
+    void discard() {
+        if (buffer != null) {
+            count = 0;
+        }
+    }
+
+    /** Gives back the Deflater of a response that failed midway. */
+    void abort() {
+        closed = true;
+        releaseDeflater();
+    }
+
+    @Override
+    public boolean isReady() {
+        try {
+            startUncompressed();
+        } catch (IOException e) {
+            return false;
+        }
+        return ((ServletOutputStream) out).isReady();
+    }
+
+    /**
+     * Non-blocking output is sent uncompressed, since the Deflater could
+     * not know when the connection takes more.
+     */
+    @Override
+    public void setWriteListener(WriteListener listener) {
+        try {
+            startUncompressed();
+        } catch (IOException e) {
+            listener.onError(e);
+            return;
+        }
+        ((ServletOutputStream) out).setWriteListener(listener);
+    }
+
+    /**
+     * Starts the wrapped response, compressed if large and the response
+     * allows it, and writes out the buffer. length is the complete length
+     * when the response ends within the buffer, or -1.
+     */
+    private void start(boolean large, long length) throws IOException {
+        byte[] buffered = buffer;
+        int bufferedCount = count;
+        buffer = null;
+
+        pool = large ? response.beginCompression() : null;
+        if (pool == null) {
+            response.beginIdentity(length);
+        }
+        out = response.getResponse().getOutputStream();
+        if (pool != null) {
+            deflater = pool.borrow();
+            if (response.getEncoding() == ContentEncoding.GZIP) {
+                out.write(GZIP_HEADER);
+                crc = new CRC32();
+            }
+            deflaterOut = new DeflaterOutputStream(out, deflater,
+                DEFLATE_BUFFER_SIZE, true);
+        }
+        writeThrough(buffered, 0, bufferedCount);
+    }
+
+    private void writeThrough(byte[] b, int off, int len) throws IOException {
+        if (deflaterOut == null) {
+            out.write(b, off, len);
+            return;
+        }
+        if (crc != null) {
+            crc.update(b, off, len);
+        }
+        uncompressedSize += len;
+        deflaterOut.write(b, off, len);
+    }
+
+    /** Writes a little-endian int, as the gzip trailer needs. */
+    private void writeInt(int value) throws IOException {
+        out.write(value & 0xff);
+        out.write((value >> 8) & 0xff);
+        out.write((value >> 16) & 0xff);
+        out.write((value >> 24) & 0xff);
+    }
+
+    private void releaseDeflater() {
+        if (deflater != null) {
+            pool.release(deflater);
+            deflater = null;
+        }
+    }
+}
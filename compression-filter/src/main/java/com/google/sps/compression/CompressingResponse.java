@@ -0,0 +1,239 @@
+package com.google.sps.compression;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Set;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Response handed down the chain by CompressionFilter. It holds back the
+ * headers that depend on compression, Content-Length and Content-Encoding,
+ * until its stream knows whether the body is compressed.
+ */
+final class CompressingResponse extends HttpServletResponseWrapper {
+
+    private final ContentEncoding encoding;
+    private final DeflaterPool pool;
+    private final int minSize;
+    private final Set<String> mimeTypes;
+
+    private CompressingOutputStream stream;
+    private PrintWriter writer;
+    /** Content length declared by the servlet, or -1 */
+    private long contentLength = -1;
+    /** Set once the response is known to stay uncompressed */
+    private boolean passThrough;
+
+    CompressingResponse(HttpServletResponse response, ContentEncoding encoding,
+        DeflaterPool pool, int minSize, Set<String> mimeTypes) {
+        super(response);
+        this.encoding = encoding;
+        this.pool = pool;
+        this.minSize = minSize;
+        this.mimeTypes = mimeTypes;
+    }
+
+    ContentEncoding getEncoding() {
+        return encoding;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (writer != null) {
+            throw new IllegalStateException("getWriter() was already called");
+        }
+        if (stream == null && passThrough) {
+            return super.getOutputStream();
+        }
+        return getStream();
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (writer == null) {
+            if (stream != null) {
+                throw new IllegalStateException(
+                    "getOutputStream() was already called");
+            }
+            if (passThrough) {
+                return super.getWriter();
+            }
+            writer = new PrintWriter(new OutputStreamWriter(getStream(),
+                getCharacterEncoding()));
+        }
+        return writer;
+    }
+
+    @Override
+    public void setContentLength(int length) {
+        setContentLengthLong(length);
+    }
+
+    @Override
+    public void setContentLengthLong(long length) {
+        if (isStarted()) {
+            super.setContentLengthLong(length);
+        } else {
+            contentLength = length;
+        }
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        if ("Content-Length".equalsIgnoreCase(name) && value != null) {
+            setContentLengthLong(Long.parseLong(value));
+        } else {
+            super.setHeader(name, value);
+        }
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        if ("Content-Length".equalsIgnoreCase(name) && value != null) {
+            setContentLengthLong(Long.parseLong(value));
+        } else {
+            super.addHeader(name, value);
+        }
+    }
+
+    @Override
+    public void setIntHeader(String name, int value) {
+        if ("Content-Length".equalsIgnoreCase(name)) {
+            setContentLengthLong(value);
+        } else {
+            super.setIntHeader(name, value);
+        }
+    }
+
+    /** Committing the headers is held back until the stream starts. */
+    @Override
+    public void flushBuffer() throws IOException {
+        if (writer != null) {
+            writer.flush();
+        }
+        if (stream != null) {
+            stream.flush();
+        }
+        if (isStarted()) {
+            super.flushBuffer();
+        }
+    }
+
+    @Override
+    public void resetBuffer() {
+        super.resetBuffer();
+        if (stream != null) {
+            stream.discard();
+        }
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        contentLength = -1;
+        if (stream != null) {
+            stream.discard();
+        }
+    }
+
+    /**
+     * Sets the headers of a compressed body and returns the pool to take a
+     * Deflater from, or returns null if the body must stay uncompressed.
+     */
+    DeflaterPool beginCompression() {
+        boolean compressibleType = isCompressibleType();
+        if (compressibleType) {
+            super.addHeader("Vary", "Accept-Encoding");
+        }
+        int status = getStatus();
+        if (!compressibleType || containsHeader("Content-Encoding")
+            || status == HttpServletResponse.SC_NO_CONTENT
+            || status == HttpServletResponse.SC_NOT_MODIFIED
+            || (contentLength >= 0 && contentLength < minSize)) {
+            if (contentLength >= 0) {
+                super.setContentLengthLong(contentLength);
+            }
+            return null;
+        }
+        super.setHeader("Content-Encoding", encoding.getToken());
+        // A strong ETag promises identical bytes, which the identity and
+        // each compressed response do not share.
+        String etag = getHeader("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            super.setHeader("ETag", "W/" + etag);
+        }
+        return pool;
+    }
+
+    /**
+     * Sets the headers of an uncompressed body of the given length, or of
+     * the declared length if it is -1.
+     */
+    void beginIdentity(long length) {
+        if (isCompressibleType()) {
+            super.addHeader("Vary", "Accept-Encoding");
+        }
+        if (length < 0) {
+            length = contentLength;
+        }
+        if (length >= 0) {
+            super.setContentLengthLong(length);
+        }
+    }
+
+    /**
+     * Leaves the rest of the response uncompressed, as for async requests
+     * that write after the filter returned.
+     */
+    void passThrough() throws IOException {
+        passThrough = true;
+        if (stream != null) {
+            if (writer != null) {
+                writer.flush();
+            }
+            stream.startUncompressed();
+        }
+    }
+
+    /** Writes out what is left of the body. */
+    void finish() throws IOException {
+        if (writer != null) {
+            writer.close();
+        } else if (stream != null) {
+            stream.close();
+        }
+    }
+
+    /** Gives back the resources of a response that failed midway. */
+    void abort() {
+        if (stream != null) {
+            stream.abort();
+        }
+    }
+
+    private CompressingOutputStream getStream() {
+        if (stream == null) {
+            stream = new CompressingOutputStream(this, minSize);
+        }
+        return stream;
+    }
+
+    private boolean isStarted() {
+        return stream == null ? passThrough : stream.isStarted();
+    }
+
+    private boolean isCompressibleType() {
+        String contentType = getContentType();
+        if (contentType == null) {
+            return false;
+        }
+        int separator = contentType.indexOf(';');
+        if (separator >= 0) {
+            contentType = contentType.substring(0, separator);
+        }
+        return mimeTypes.contains(contentType.trim().toLowerCase());
+    }
+}
@@ -0,0 +1,119 @@
+package com.google.sps.compression;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Compresses responses with gzip or deflate, as negotiated from the
+ * Accept-Encoding header of the request. Only responses of the configured
+ * content types and of at least minSize bytes are compressed, and they are
+ * compressed while they are written.
+ *
+ * Responses of async requests are sent uncompressed, since they are still
+ * written after the filter returns. The filter must be registered with
+ * async support to let those requests through.
+ */
+public class CompressionFilter implements Filter {
+
+    static final int DEFAULT_MIN_SIZE = 1024;
+    static final int DEFAULT_LEVEL = 6;
+    static final String DEFAULT_MIME_TYPES = "application/json,text/html,"
+        + "text/plain,text/css,application/javascript,text/javascript,"
+        + "image/svg+xml";
+
+    private int minSize = DEFAULT_MIN_SIZE;
+    private final Set<String> mimeTypes = new HashSet<>();
+    private final Map<ContentEncoding, DeflaterPool> pools =
+        new EnumMap<>(ContentEncoding.class);
+
+    @Override
+    public void init(FilterConfig config) throws ServletException {
+        minSize = getIntParameter(config, "minSize", DEFAULT_MIN_SIZE);
+        int level = getIntParameter(config, "level", DEFAULT_LEVEL);
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+            throw new ServletException("level must be between 1 and 9");
+        }
+        int poolSize = getIntParameter(config, "poolSize",
+            2 * Runtime.getRuntime().availableProcessors());
+
+        String types = config.getInitParameter("mimeTypes");
+        for (String type: (types == null ? DEFAULT_MIME_TYPES : types)
+            .split(",")) {
+            if (!type.trim().isEmpty()) {
+                mimeTypes.add(type.trim().toLowerCase());
+            }
+        }
+        for (ContentEncoding encoding: ContentEncoding.values()) {
+            pools.put(encoding, new DeflaterPool(level, encoding.isNowrap(),
+                poolSize));
+        }
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response,
+        FilterChain chain) throws IOException, ServletException {
+        if (!(request instanceof HttpServletRequest)
+            || !(response instanceof HttpServletResponse)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        ContentEncoding encoding = ContentEncoding.negotiate(
+            httpRequest.getHeader("Accept-Encoding"));
+        if (encoding == null || "HEAD".equals(httpRequest.getMethod())) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        CompressingResponse compressingResponse = new CompressingResponse(
+            (HttpServletResponse) response, encoding, pools.get(encoding),
+            minSize, mimeTypes);
+        boolean completed = false;
+        try {
+            chain.doFilter(request, compressingResponse);
+            completed = true;
+        } finally {
+            if (!completed) {
+                compressingResponse.abort();
+            }
+        }
+
+        if (request.isAsyncStarted()) {
+            compressingResponse.passThrough();
+        } else {
+            compressingResponse.finish();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        for (DeflaterPool pool: pools.values()) {
+            pool.close();
+        }
+    }
+
+    private static int getIntParameter(FilterConfig config, String name,
+        int defaultValue) throws ServletException {
+        String value = config.getInitParameter(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new ServletException(name + " must be a number: " + value);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.google.sps.compression;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+
+/**
+ * Idle Deflaters of one level and framing. A Deflater holds native memory
+ * that is only freed by end(), so reusing them saves both the allocation
+ * and the wait for finalization.
+ */
+final class DeflaterPool {
+
+    private final int level;
+    private final boolean nowrap;
+    private final BlockingQueue<Deflater> idle;
+
+    DeflaterPool(int level, boolean nowrap, int size) {
+        this.level = level;
+        this.nowrap = nowrap;
+        this.idle = new ArrayBlockingQueue<>(size);
+    }
+
+    /** Returns an idle Deflater, or a new one if none is idle. */
+    Deflater borrow() {
+        Deflater deflater = idle.poll();
+        if (deflater == null) {
+            deflater = new Deflater(level, nowrap);
+        }
+        return deflater;
+    }
+
+    /** Takes back a Deflater, ending it if the pool is full. */
+    void release(Deflater deflater) {
+        deflater.reset();
+        if (!idle.offer(deflater)) {
+            deflater.end();
+        }
+    }
+
+    /** Ends every idle Deflater. */
+    void close() {
+        Deflater deflater;
+        while ((deflater = idle.poll()) != null) {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.google.sps.compression;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Test;
+
+/**
+ * Writes responses through CompressingResponse and decodes them with the
+ * JDK's own gzip and zlib readers.
+ */
+public class CompressingResponseTest {
+
+    private static final int MIN_SIZE = 1024;
+
+    @Test
+    public void gzipRoundTrip() throws IOException {
+        FakeResponse response = new FakeResponse();
+        byte[] body = createBody(20000);
+        write(response, ContentEncoding.GZIP, body);
+
+        assertEquals("gzip", response.headers.get("Content-Encoding"));
+        assertArrayEquals(body, readAll(new GZIPInputStream(
+            new ByteArrayInputStream(response.body.toByteArray()))));
+    }
+
+    @Test
+    public void deflateRoundTrip() throws IOException {
+        FakeResponse response = new FakeResponse();
+        byte[] body = createBody(20000);
+        write(response, ContentEncoding.DEFLATE, body);
+
+        assertEquals("deflate", response.headers.get("Content-Encoding"));
+        assertArrayEquals(body, readAll(new InflaterInputStream(
+            new ByteArrayInputStream(response.body.toByteArray()))));
+    }
+
+    @Test
+    public void smallResponseStaysIdentity() throws IOException {
+        FakeResponse response = new FakeResponse();
+        byte[] body = createBody(MIN_SIZE / 2);
+        write(response, ContentEncoding.GZIP, body);
+
+        assertNull(response.headers.get("Content-Encoding"));
+        assertEquals(String.valueOf(body.length),
+            response.headers.get("Content-Length"));
+        assertArrayEquals(body, response.body.toByteArray());
+    }
+
+    @Test
+    public void compressedResponseWeakensStrongETag() throws IOException {
+        FakeResponse response = new FakeResponse();
+        response.headers.put("ETag", "\"v1\"");
+        write(response, ContentEncoding.GZIP, createBody(20000));
+
+        assertEquals("W/\"v1\"", response.headers.get("ETag"));
+    }
+
+    /**
+     * Writes the body in uneven pieces with a flush in between, as a
+     * streaming servlet does, and finishes the response.
+     */
+    private static void write(FakeResponse response, ContentEncoding encoding,
+        byte[] body) throws IOException {
+        CompressingResponse compressing = new CompressingResponse(
+            response.proxy, encoding, new DeflaterPool(6, encoding.isNowrap(),
+                1), MIN_SIZE, Collections.singleton("application/json"));
+        ServletOutputStream out = compressing.getOutputStream();
+        int half = body.length / 2;
+        out.write(body, 0, 100);
+        out.write(body, 100, half - 100);
+        out.flush();
+        out.write(body, half, body.length - half);
+        compressing.finish();
+    }
+
+    private static byte[] createBody(int length) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; json.length() < length - 1; i++) {
+            json.append("{\"id\":").append(i).append("},");
+        }
+        json.setLength(length - 1);
+        json.append(']');
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    /** Response of a JSON servlet that records its headers and body */
+    private static final class FakeResponse {
+
+        private final Map<String, String> headers = new HashMap<>();
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private final HttpServletResponse proxy;
+
+        FakeResponse() {
+            ServletOutputStream stream = new ServletOutputStream() {
+                @Override
+                public void write(int b) {
+                    body.write(b);
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setWriteListener(WriteListener listener) {
+                }
+            };
+            proxy = (HttpServletResponse) Proxy.newProxyInstance(
+                HttpServletResponse.class.getClassLoader(),
+                new Class<?>[] {HttpServletResponse.class},
+                (target, method, args) -> {
+                    switch (method.getName()) {
+                        case "getOutputStream":
+                            return stream;
+                        case "getContentType":
+                            return "application/json;charset=UTF-8";
+                        case "getCharacterEncoding":
+                            return "UTF-8";
+                        case "getStatus":
+                            return HttpServletResponse.SC_OK;
+                        case "setHeader":
+                        case "addHeader":
+                            headers.put((String) args[0], (String) args[1]);
+                            return null;
+                        case "setContentLengthLong":
+                            headers.put("Content-Length",
+                                String.valueOf(args[0]));
+                            return null;
+                        case "getHeader":
+                            return headers.get((String) args[0]);
+                        case "containsHeader":
+                            return headers.containsKey((String) args[0]);
+                        case "isCommitted":
+                            return false;
+                        default:
+                            return null;
+                    }
+                });
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.google.sps.benchmarks;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import com.google.sps.data.Comment;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Gson serialization of a batch of comments, streamed as /data does it and
+ * built into one String as it was done before.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommentSerializationBenchmark {
+
+    private static final Gson GSON = new Gson();
+
+    @Param({"20", "100"})
+    public int batchSize;
+
+    @Param({"64", "1000"})
+    public int textLength;
+
+    private List<Comment> comments;
+    private final FakeHttp.Recorder recorder = new FakeHttp.Recorder();
+
+    @Setup
+    public void setUp() {
+        comments = new ArrayList<>();
+        for (int i = 0; i < batchSize; i++) {
+            comments.add(Payloads.comment(i, textLength, "id-" + i));
+        }
+    }
+
+    @Benchmark
+    public long streamed() throws IOException {
+        recorder.reset();
+        JsonWriter writer = new JsonWriter(recorder.writer);
+        writer.beginArray();
+        for (Comment comment: comments) {
+            GSON.toJson(comment, Comment.class, writer);
+        }
+        writer.endArray();
+        writer.flush();
+        return recorder.bodyChars;
+    }
+
+    @Benchmark
+    public long toJsonString() {
+        recorder.reset();
+        recorder.writer.println(GSON.toJson(comments));
+        return recorder.bodyChars;
+    }
+}
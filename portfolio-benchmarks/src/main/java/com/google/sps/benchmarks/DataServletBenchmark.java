@@ -0,0 +1,115 @@
+package com.google.sps.benchmarks;
+
+import com.google.sps.data.CommentCache;
+import com.google.sps.data.CommentRepositories;
+import com.google.sps.data.DatastoreCommentRepository;
+import com.google.sps.servlets.DataServlet;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * GET and POST of /data against the local Datastore, with the page holding
+ * commentsPerPage comments of textLength characters.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DataServletBenchmark {
+
+    static final String PAGE = "bench.html";
+    static final String POST_PAGE = "bench-post.html";
+
+    @Param({"10", "1000", "100000"})
+    public int commentsPerPage;
+
+    @Param({"64", "1000"})
+    public int textLength;
+
+    @Param({"5", "20"})
+    public int batchSize;
+
+    private LocalServices services;
+    private DataServlet servlet;
+    private HttpServletRequest getRequest;
+    private HttpServletRequest postRequest;
+    private final FakeHttp.Recorder recorder = new FakeHttp.Recorder();
+    private final HttpServletResponse response = FakeHttp.response(recorder);
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // Read once, when the limiter is first used; without this every post
+        // after the first few measures a 429.
+        System.setProperty("comments.rateLimit.perMinute", "1000000000");
+        System.setProperty("comments.rateLimit.burst", "1000000000");
+        services = new LocalServices(true);
+        services.start();
+        CommentRepositories.set(new DatastoreCommentRepository());
+        Payloads.seed(CommentRepositories.get(), PAGE, commentsPerPage,
+            textLength);
+        servlet = new DataServlet();
+
+        Map<String, String> getParameters = new HashMap<>();
+        getParameters.put("page", PAGE);
+        getParameters.put("comments-number", String.valueOf(batchSize));
+        getRequest = FakeHttp.request("GET", getParameters,
+            new HashMap<>());
+
+        Map<String, String> postParameters = new HashMap<>();
+        postParameters.put("page", POST_PAGE);
+        postParameters.put("author", "bench");
+        postParameters.put("text", Payloads.text(textLength));
+        postParameters.put("emotion", "happy");
+        postRequest = FakeHttp.request("POST", postParameters,
+            new HashMap<>());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        CommentRepositories.set(null);
+        services.stop();
+    }
+
+    /** First batch of the page, answered from the comment cache */
+    @Benchmark
+    public long getCached() throws IOException {
+        recorder.reset();
+        servlet.doGet(getRequest, response);
+        return recorder.bodyChars;
+    }
+
+    /** First batch of the page, read from Datastore every time */
+    @Benchmark
+    public long getUncached() throws IOException {
+        CommentCache.getInstance().invalidate(PAGE);
+        recorder.reset();
+        servlet.doGet(getRequest, response);
+        return recorder.bodyChars;
+    }
+
+    @Benchmark
+    public int post() throws IOException {
+        recorder.reset();
+        servlet.doPost(postRequest, response);
+        return recorder.status;
+    }
+}
@@ -0,0 +1,134 @@
+package com.google.sps.benchmarks;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Minimal in-process request and response objects, so servlets can be
+ * driven without a container. Methods that are not modelled return null,
+ * zero or false.
+ */
+final class FakeHttp {
+
+    /** Request attribute that Blobstore reads uploaded blob keys from */
+    static final String UPLOADS_ATTRIBUTE =
+        "com.google.appengine.api.blobstore.upload.blobkeys";
+
+    private FakeHttp() {
+    }
+
+    static HttpServletRequest request(String method, Map<String, String> parameters,
+        Map<String, String> headers) {
+        Map<String, Object> attributes = new HashMap<>();
+        // No file was uploaded with the form.
+        attributes.put(UPLOADS_ATTRIBUTE, new HashMap<String, Object>());
+
+        return (HttpServletRequest) Proxy.newProxyInstance(
+            FakeHttp.class.getClassLoader(),
+            new Class<?>[] {HttpServletRequest.class},
+            (proxy, m, args) -> {
+                switch (m.getName()) {
+                    case "getMethod":
+                        return method;
+                    case "getParameter":
+                        return parameters.get((String) args[0]);
+                    case "getParameterValues":
+                        String value = parameters.get((String) args[0]);
+                        return value == null ? null : new String[] {value};
+                    case "getHeader":
+                        return headers.get((String) args[0]);
+                    case "getAttribute":
+                        return attributes.get((String) args[0]);
+                    case "setAttribute":
+                        attributes.put((String) args[0], args[1]);
+                        return null;
+                    default:
+                        return defaultValue(m.getReturnType());
+                }
+            });
+    }
+
+    static HttpServletResponse response(Recorder recorder) {
+        return (HttpServletResponse) Proxy.newProxyInstance(
+            FakeHttp.class.getClassLoader(),
+            new Class<?>[] {HttpServletResponse.class},
+            (proxy, m, args) -> {
+                switch (m.getName()) {
+                    case "getWriter":
+                        return recorder.writer;
+                    case "setStatus":
+                    case "sendError":
+                        recorder.status = (Integer) args[0];
+                        return null;
+                    case "getStatus":
+                        return recorder.status;
+                    case "setHeader":
+                    case "addHeader":
+                        recorder.headers.put((String) args[0], (String) args[1]);
+                        return null;
+                    case "getHeader":
+                        return recorder.headers.get((String) args[0]);
+                    case "sendRedirect":
+                        recorder.status = HttpServletResponse.SC_FOUND;
+                        recorder.headers.put("Location", (String) args[0]);
+                        return null;
+                    default:
+                        return defaultValue(m.getReturnType());
+                }
+            });
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+
+    /**
+     * What a servlet wrote. The body is counted, not kept, so writing it
+     * costs about as much as writing to a socket buffer.
+     */
+    static final class Recorder {
+
+        int status = HttpServletResponse.SC_OK;
+        final Map<String, String> headers = new HashMap<>();
+        long bodyChars;
+        final PrintWriter writer = new PrintWriter(new Writer() {
+            @Override
+            public void write(char[] buffer, int offset, int length) {
+                bodyChars += length;
+            }
+
+            @Override
+            public void write(String text, int offset, int length) {
+                bodyChars += length;
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+
+        void reset() {
+            status = HttpServletResponse.SC_OK;
+            headers.clear();
+            bodyChars = 0;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.google.sps.benchmarks;
+
+import com.google.appengine.tools.development.testing.LocalBlobstoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
+
+/**
+ * In-memory Datastore, Blobstore, Users and Task Queue stand-ins with a
+ * logged-in user; tasks are only queued, not run.
+ * The App Engine environment is per thread, so start() has to run on the
+ * thread that calls the servlets.
+ */
+final class LocalServices {
+
+    static final String USER_EMAIL = "bench@example.com";
+
+    private final LocalServiceTestHelper helper;
+
+    LocalServices(boolean isLoggedIn) {
+        helper = new LocalServiceTestHelper(
+            new LocalDatastoreServiceTestConfig().setNoStorage(true),
+            new LocalBlobstoreServiceTestConfig().setNoStorage(true),
+            new LocalMemcacheServiceTestConfig(),
+            new LocalUserServiceTestConfig(),
+            new LocalTaskQueueTestConfig().setDisableAutoTaskExecution(true))
+            .setEnvIsLoggedIn(isLoggedIn)
+            .setEnvEmail(USER_EMAIL)
+            .setEnvAuthDomain("example.com");
+    }
+
+    void start() {
+        helper.setUp();
+    }
+
+    void stop() {
+        helper.tearDown();
+    }
+}
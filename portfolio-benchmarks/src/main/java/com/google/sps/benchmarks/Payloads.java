@@ -0,0 +1,55 @@
+package com.google.sps.benchmarks;
+
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentRepository;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Generated comments of a given size.
+ */
+final class Payloads {
+
+    private static final String[] EMOTIONS =
+        {"happy", "laughing", "surprised", "sad"};
+    private static final String WORDS = "lorem ipsum dolor sit amet "
+        + "consectetur adipiscing elit sed do eiusmod tempor incididunt ";
+
+    private Payloads() {
+    }
+
+    static String text(int length) {
+        StringBuilder text = new StringBuilder(length);
+        while (text.length() < length) {
+            text.append(WORDS, 0, Math.min(WORDS.length(),
+                length - text.length()));
+        }
+        return text.toString();
+    }
+
+    static Comment comment(int index, int textLength, String id) {
+        return new Comment(text(textLength), "user " + index,
+            "user" + index + "@example.com", new Date(1590000000000L
+                + index * 1000L), EMOTIONS[index % EMOTIONS.length], false,
+            id, null);
+    }
+
+    /**
+     * Stores count comments on the page in chunks of 500.
+     */
+    static void seed(CommentRepository repository, String page, int count,
+        int textLength) {
+        List<Comment> chunk = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            chunk.add(comment(i, textLength, null));
+            if (chunk.size() == 500) {
+                repository.save(page, chunk);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            repository.save(page, chunk);
+        }
+    }
+}
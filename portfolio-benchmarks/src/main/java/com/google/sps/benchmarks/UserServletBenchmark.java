@@ -0,0 +1,66 @@
+package com.google.sps.benchmarks;
+
+import com.google.sps.servlets.UserServlet;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * GET of /user, including its string-concatenated JSON.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserServletBenchmark {
+
+    @Param({"true", "false"})
+    public boolean isLoggedIn;
+
+    private LocalServices services;
+    private UserServlet servlet;
+    private HttpServletRequest request;
+    private final FakeHttp.Recorder recorder = new FakeHttp.Recorder();
+    private final HttpServletResponse response = FakeHttp.response(recorder);
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        services = new LocalServices(isLoggedIn);
+        services.start();
+        servlet = new UserServlet();
+
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("page", "/index.html");
+        request = FakeHttp.request("GET", parameters, new HashMap<>());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        services.stop();
+    }
+
+    @Benchmark
+    public long get() throws IOException {
+        recorder.reset();
+        servlet.doGet(request, response);
+        return recorder.bodyChars;
+    }
+}
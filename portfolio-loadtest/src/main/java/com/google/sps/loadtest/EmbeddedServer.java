@@ -0,0 +1,96 @@
+package com.google.sps.loadtest;
+
+import com.google.sps.compression.CompressionFilter;
+import com.google.sps.servlets.BlobStoreServlet;
+import com.google.sps.servlets.DataServlet;
+import com.google.sps.servlets.DeleteDataServlet;
+import com.google.sps.servlets.MetricsFilter;
+import com.google.sps.servlets.MetricsServlet;
+import com.google.sps.servlets.StatsServlet;
+import com.google.sps.servlets.UserServlet;
+import java.io.File;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.ServletContext;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.FilterHolder;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+
+/**
+ * The portfolio servlets in an embedded Jetty 9.3 on a free local port,
+ * the Servlet 3.1 container of the App Engine Java 8 runtime. The servlets
+ * are mapped by their @WebServlet annotations and the filters as in
+ * WEB-INF/web.xml, behind an EnvironmentFilter. The startup listeners are
+ * left out; they only start background work.
+ */
+final class EmbeddedServer {
+
+    private static final List<Class<? extends HttpServlet>> SERVLETS =
+        Arrays.asList(DataServlet.class, DeleteDataServlet.class,
+            UserServlet.class, BlobStoreServlet.class, StatsServlet.class,
+            MetricsServlet.class);
+
+    private final Server server = new Server();
+    private final ServerConnector connector = new ServerConnector(server);
+
+    EmbeddedServer(LocalServices services, File baseDirectory)
+        throws ReflectiveOperationException {
+        baseDirectory.mkdirs();
+        connector.setPort(0);
+        server.addConnector(connector);
+        ServletContextHandler context =
+            new ServletContextHandler(ServletContextHandler.NO_SESSIONS);
+        context.setContextPath("/");
+        context.setAttribute(ServletContext.TEMPDIR, baseDirectory);
+
+        addFilter(context, "environment", new EnvironmentFilter(services));
+        addFilter(context, "metrics", new MetricsFilter());
+        FilterHolder compression = addFilter(context, "compression",
+            new CompressionFilter());
+        compression.setInitParameter("minSize", "1024");
+
+        for (Class<? extends HttpServlet> type: SERVLETS) {
+            WebServlet annotation = type.getAnnotation(WebServlet.class);
+            ServletHolder holder = new ServletHolder(type.getSimpleName(),
+                type.getConstructor().newInstance());
+            holder.setAsyncSupported(annotation.asyncSupported());
+            for (String pattern: annotation.value()) {
+                context.addServlet(holder, pattern);
+            }
+            for (String pattern: annotation.urlPatterns()) {
+                context.addServlet(holder, pattern);
+            }
+        }
+        server.setHandler(context);
+    }
+
+    void start() throws Exception {
+        server.start();
+    }
+
+    /** Returns the port the server listens on, once started. */
+    int getPort() {
+        return connector.getLocalPort();
+    }
+
+    void stop() throws Exception {
+        server.stop();
+    }
+
+    /** Maps the filter to every request, after the ones added before. */
+    private static FilterHolder addFilter(ServletContextHandler context,
+        String name, Filter filter) {
+        FilterHolder holder = new FilterHolder(filter);
+        holder.setName(name);
+        holder.setAsyncSupported(true);
+        context.addFilter(holder, "/*", EnumSet.of(DispatcherType.REQUEST));
+        return holder;
+    }
+}
@@ -0,0 +1,59 @@
+package com.google.sps.loadtest;
+
+import com.google.apphosting.api.ApiProxy;
+import java.io.IOException;
+import java.util.HashMap;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Runs each request in an App Engine environment of the user named by the
+ * USER_HEADER header, as the App Engine runtime would for a signed-in user.
+ * Requests without the header are anonymous.
+ */
+final class EnvironmentFilter implements Filter {
+
+    static final String USER_HEADER = "X-Load-Test-User";
+    /** Request attribute that Blobstore reads uploaded blob keys from */
+    static final String UPLOADS_ATTRIBUTE =
+        "com.google.appengine.api.blobstore.upload.blobkeys";
+
+    private final LocalServices services;
+
+    EnvironmentFilter(LocalServices services) {
+        this.services = services;
+    }
+
+    @Override
+    public void init(FilterConfig config) {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response,
+        FilterChain chain) throws IOException, ServletException {
+        String userEmail = ((HttpServletRequest) request)
+            .getHeader(USER_HEADER);
+        // Comment posts are sent without an image, as if they came through
+        // the Blobstore upload handler with the file input left empty.
+        if (request.getAttribute(UPLOADS_ATTRIBUTE) == null) {
+            request.setAttribute(UPLOADS_ATTRIBUTE,
+                new HashMap<String, Object>());
+        }
+
+        ApiProxy.setEnvironmentForCurrentThread(services.forUser(userEmail));
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            ApiProxy.clearEnvironmentForCurrentThread();
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
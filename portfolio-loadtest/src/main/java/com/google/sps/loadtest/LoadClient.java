@@ -0,0 +1,94 @@
+package com.google.sps.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Sends requests to the embedded server over keep-alive connections, and
+ * reads every response to the end so its connection can be reused.
+ */
+final class LoadClient {
+
+    static final int TIMEOUT_MILLIS = 30000;
+
+    private final String baseUrl;
+
+    LoadClient(int port) {
+        this.baseUrl = "http://localhost:" + port;
+    }
+
+    /**
+     * Sends the request as userEmail, or anonymously if it is null. A form
+     * body makes it a POST. Redirects are not followed.
+     */
+    Response send(String path, String form, String userEmail)
+        throws IOException {
+        HttpURLConnection connection = (HttpURLConnection)
+            new URL(baseUrl + path).openConnection();
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        connection.setInstanceFollowRedirects(false);
+        if (userEmail != null) {
+            connection.setRequestProperty(EnvironmentFilter.USER_HEADER,
+                userEmail);
+        }
+        if (form != null) {
+            byte[] body = form.getBytes(StandardCharsets.UTF_8);
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+            connection.setRequestProperty("Content-Type",
+                "application/x-www-form-urlencoded");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+        }
+
+        int status = connection.getResponseCode();
+        InputStream in = status >= 400 ? connection.getErrorStream()
+            : connection.getInputStream();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        if (in != null) {
+            try {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    body.write(buffer, 0, read);
+                }
+            } finally {
+                in.close();
+            }
+        }
+        return new Response(status,
+            new String(body.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    static final class Response {
+
+        private final int status;
+        private final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        int getStatus() {
+            return status;
+        }
+
+        String getBody() {
+            return body;
+        }
+
+        /** 3xx redirects, such as the one after a post, are successes. */
+        boolean isError() {
+            return status >= 400;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.google.sps.loadtest;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends the operation mix at a fixed rate for the warm-up and the measured
+ * duration. The schedule is open-loop: requests are started when they are
+ * due whether or not earlier ones have finished, so a slow server shows up
+ * as growing latency instead of a lower request rate. At most
+ * concurrency requests are in flight; the others wait in line, and their
+ * wait counts toward their latency.
+ */
+final class LoadGenerator {
+
+    /** Comment ids kept per page for deletes */
+    static final int MAX_IDS = 10000;
+    static final String TEXT = "Load test comment about the portfolio";
+    static final String[] EMOTIONS = {"happy", "laughing", "surprised", "sad"};
+
+    private final LoadTestOptions options;
+    private final LoadClient client;
+    private final Map<Operation, OperationStats> stats =
+        new EnumMap<>(Operation.class);
+    private final Map<String, BlockingQueue<String>> ids = new HashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile int maxInFlight;
+    private long measuredNanos;
+
+    LoadGenerator(LoadTestOptions options, LoadClient client) {
+        this.options = options;
+        this.client = client;
+        for (Operation operation: Operation.values()) {
+            stats.put(operation, new OperationStats());
+        }
+        for (String page: options.getPages()) {
+            ids.put(page, new ArrayBlockingQueue<>(MAX_IDS));
+        }
+    }
+
+    /** Makes the comment available for deletes. */
+    void addId(String page, String id) {
+        ids.get(page).offer(id);
+    }
+
+    /**
+     * Sends the traffic and returns once every request has finished, or
+     * a timeout after the last one was started.
+     */
+    void run() throws InterruptedException {
+        ExecutorService executor = new ThreadPoolExecutor(
+            options.getConcurrency(), options.getConcurrency(), 0,
+            TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "load-client");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+        Random random = new Random(options.getRandomSeed());
+        double intervalNanos = 1e9 / options.getRate();
+        long start = System.nanoTime();
+        long measureStart = start
+            + TimeUnit.SECONDS.toNanos(options.getWarmupSeconds());
+        long end = measureStart
+            + TimeUnit.SECONDS.toNanos(options.getDurationSeconds());
+
+        // Kept as a double so rates that don't divide a second don't drift.
+        double due = start;
+        while (due < end) {
+            long dueNanos = (long) due;
+            long delay;
+            while ((delay = dueNanos - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(delay);
+            }
+            Operation operation = pick(random);
+            boolean isMeasured = dueNanos >= measureStart;
+            maxInFlight = Math.max(maxInFlight, inFlight.incrementAndGet());
+            executor.execute(() -> {
+                try {
+                    send(operation, dueNanos, isMeasured);
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            });
+            due += options.isPoisson()
+                ? -Math.log(1 - random.nextDouble()) * intervalNanos
+                : intervalNanos;
+        }
+
+        executor.shutdown();
+        if (!executor.awaitTermination(LoadClient.TIMEOUT_MILLIS * 2,
+            TimeUnit.MILLISECONDS)) {
+            System.err.println("Gave up on " + inFlight.get()
+                + " unfinished requests");
+            executor.shutdownNow();
+        }
+        measuredNanos = end - measureStart;
+    }
+
+    Map<Operation, OperationStats> getStats() {
+        return stats;
+    }
+
+    /** Returns the length of the measured part of the run. */
+    long getMeasuredNanos() {
+        return measuredNanos;
+    }
+
+    /** Returns the most requests that were started and not finished. */
+    int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    private Operation pick(Random random) {
+        int total = 0;
+        for (int weight: options.getMix().values()) {
+            total += weight;
+        }
+        int value = random.nextInt(total);
+        for (Map.Entry<Operation, Integer> entry:
+            options.getMix().entrySet()) {
+            value -= entry.getValue();
+            if (value < 0) {
+                return entry.getKey();
+            }
+        }
+        throw new IllegalStateException("Empty mix");
+    }
+
+    private void send(Operation operation, long dueNanos, boolean isMeasured) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<String> pages = options.getPages();
+        String page = pages.get(random.nextInt(pages.size()));
+        String userEmail = "user" + random.nextInt(options.getUsers())
+            + "@example.com";
+
+        String path;
+        String form = null;
+        switch (operation) {
+            case DATA_GET:
+                path = "/data?page=" + encode(page) + "&comments-number="
+                    + options.getCommentsNumber();
+                break;
+            case DATA_POST:
+                path = "/data";
+                form = "page=" + encode(page) + "&author=" + encode(userEmail)
+                    + "&text=" + encode(TEXT) + "&emotion="
+                    + EMOTIONS[random.nextInt(EMOTIONS.length)];
+                break;
+            case DELETE:
+                // Never sent without an id, which would clear the page.
+                String id = ids.get(page).poll();
+                if (id == null) {
+                    if (isMeasured) {
+                        stats.get(operation).skip();
+                    }
+                    return;
+                }
+                path = "/delete-data";
+                form = "page=" + encode(page) + "&id=" + encode(id);
+                break;
+            case USER:
+                path = "/user?page=" + encode(page);
+                break;
+            case UPLOAD_URL:
+                path = "/blobstore-upload-url";
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown operation: "
+                    + operation);
+        }
+
+        long sentNanos = System.nanoTime();
+        int status;
+        boolean isError;
+        try {
+            LoadClient.Response response = client.send(path, form, userEmail);
+            status = response.getStatus();
+            isError = response.isError();
+            if (operation == Operation.DATA_GET && !isError) {
+                collectIds(page, response.getBody());
+            }
+        } catch (IOException e) {
+            status = -1;
+            isError = true;
+        }
+        long doneNanos = System.nanoTime();
+        if (isMeasured) {
+            stats.get(operation).record(status, isError, doneNanos - dueNanos,
+                doneNanos - sentNanos);
+        }
+    }
+
+    /**
+     * Keeps the ids of the comments in a /data response for deletes, while
+     * the page is short of them.
+     */
+    private void collectIds(String page, String body) {
+        BlockingQueue<String> pageIds = ids.get(page);
+        if (pageIds.size() > MAX_IDS / 2) {
+            return;
+        }
+        try {
+            for (JsonElement comment: JsonParser.parseString(body)
+                .getAsJsonObject().getAsJsonArray("comments")) {
+                JsonElement id = comment.getAsJsonObject().get("id");
+                if (id != null && !id.isJsonNull()) {
+                    pageIds.offer(id.getAsString());
+                }
+            }
+        } catch (JsonParseException | IllegalStateException e) {
+            System.err.println("Could not read comment ids: " + e);
+        }
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
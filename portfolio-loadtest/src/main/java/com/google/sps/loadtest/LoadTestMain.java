@@ -0,0 +1,117 @@
+package com.google.sps.loadtest;
+
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentRepositories;
+import com.google.sps.data.CommentRepository;
+import com.google.sps.data.DatastoreCommentRepository;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Starts the portfolio in an embedded server on local App Engine services,
+ * seeds comments, sends the configured traffic and writes the reports.
+ */
+public final class LoadTestMain {
+
+    /** Posts allowed per user and minute unless set on the command line */
+    static final String UNLIMITED_POSTS = "1000000";
+
+    private LoadTestMain() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestOptions options;
+        try {
+            options = LoadTestOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(LoadTestOptions.USAGE);
+            System.exit(2);
+            return;
+        }
+
+        // The rate limiter would otherwise turn most posts into 429s. Read
+        // once, so this has to happen before the servlets are loaded.
+        setDefaultProperty("comments.rateLimit.perMinute", UNLIMITED_POSTS);
+        setDefaultProperty("comments.rateLimit.burst", UNLIMITED_POSTS);
+
+        LocalServices services = new LocalServices();
+        services.start();
+        CommentRepositories.set(new DatastoreCommentRepository());
+        EmbeddedServer server = new EmbeddedServer(services,
+            new File(options.getOutputDirectory(), "jetty"));
+        server.start();
+        try {
+            LoadClient client = new LoadClient(server.getPort());
+            LoadGenerator generator = new LoadGenerator(options, client);
+            seed(options, generator);
+
+            System.out.println("Sending " + options.getRate()
+                + " requests a second for " + options.getWarmupSeconds()
+                + "s of warm-up and " + options.getDurationSeconds() + "s");
+            generator.run();
+
+            Report report = new Report(options, generator);
+            if (options.getBaseline() != null) {
+                report.compare(options.getBaseline());
+            }
+            File json = report.write(options.getOutputDirectory(),
+                options.getLabel(), fetch(client, "/metrics"),
+                fetch(client, "/stats"));
+            System.out.print(report.getSummary());
+            System.out.println("Wrote " + json.getPath());
+        } finally {
+            server.stop();
+            CommentRepositories.set(null);
+            services.stop();
+        }
+    }
+
+    /**
+     * Stores the seed comments of every page, straight into the repository,
+     * and offers their ids for deletes.
+     */
+    private static void seed(LoadTestOptions options,
+        LoadGenerator generator) {
+        CommentRepository repository = CommentRepositories.get();
+        for (String page: options.getPages()) {
+            List<Comment> chunk = new ArrayList<>();
+            for (int i = 0; i < options.getSeedComments(); i++) {
+                chunk.add(new Comment(LoadGenerator.TEXT, "seed",
+                    "seed@example.com", new Date(),
+                    LoadGenerator.EMOTIONS[i % LoadGenerator.EMOTIONS.length],
+                    false, null, null));
+                if (chunk.size() == 500 || i == options.getSeedComments() - 1) {
+                    for (Comment saved: repository.save(page, chunk)) {
+                        generator.addId(page, saved.getId());
+                    }
+                    chunk.clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the body of a server endpoint, fetched as the admin, or null
+     * if it failed.
+     */
+    private static String fetch(LoadClient client, String path) {
+        try {
+            LoadClient.Response response = client.send(path, null,
+                LocalServices.ADMIN_EMAIL);
+            return response.isError() ? null : response.getBody();
+        } catch (IOException e) {
+            System.err.println("Could not fetch " + path + ": " + e);
+            return null;
+        }
+    }
+
+    private static void setDefaultProperty(String name, String value) {
+        if (System.getProperty(name) == null) {
+            System.setProperty(name, value);
+        }
+    }
+}
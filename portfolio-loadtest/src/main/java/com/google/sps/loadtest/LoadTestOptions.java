@@ -0,0 +1,239 @@
+package com.google.sps.loadtest;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Settings of a load test run, parsed from --name=value arguments.
+ */
+final class LoadTestOptions {
+
+    static final String USAGE = String.join("\n",
+        "Options, all --name=value:",
+        "  label         name of the build in the report file names (local)",
+        "  rate          requests started per second (100)",
+        "  duration      seconds measured (60)",
+        "  warmup        seconds sent before measuring (10)",
+        "  arrivals      uniform or poisson spacing of requests (uniform)",
+        "  mix           operation:weight,... of data-get, data-post, delete,",
+        "                user and upload-url (data-get:70,data-post:10,",
+        "                delete:5,user:10,upload-url:5)",
+        "  pages         pages the comments are read from and posted to",
+        "                (index.html,projects.html,career.html,interests.html)",
+        "  comments      comments per /data batch (5)",
+        "  seed          comments stored on each page before the run (200)",
+        "  users         distinct users the requests are spread over (50)",
+        "  concurrency   most requests in flight; later ones wait (256)",
+        "  random        seed of the request sequence (1)",
+        "  out           directory the reports are written to (target/loadtest)",
+        "  baseline      earlier report to compare the run with");
+
+    private String label = "local";
+    private double rate = 100;
+    private int durationSeconds = 60;
+    private int warmupSeconds = 10;
+    private boolean poisson;
+    private final Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+    private List<String> pages = Arrays.asList("index.html", "projects.html",
+        "career.html", "interests.html");
+    private int commentsNumber = 5;
+    private int seedComments = 200;
+    private int users = 50;
+    private int concurrency = 256;
+    private long randomSeed = 1;
+    private File outputDirectory = new File("target/loadtest");
+    private File baseline;
+
+    private LoadTestOptions() {
+        for (Operation operation: Operation.values()) {
+            mix.put(operation, operation.getDefaultWeight());
+        }
+    }
+
+    /**
+     * Parses the arguments.
+     *
+     * @throws IllegalArgumentException if one is unknown or malformed
+     */
+    static LoadTestOptions parse(String[] args) {
+        LoadTestOptions options = new LoadTestOptions();
+        for (String arg: args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Expected --name=value: "
+                    + arg);
+            }
+            options.set(arg.substring(2, separator),
+                arg.substring(separator + 1));
+        }
+        if (options.rate <= 0 || options.durationSeconds <= 0
+            || options.warmupSeconds < 0 || options.users <= 0
+            || options.concurrency <= 0 || options.commentsNumber <= 0
+            || options.seedComments < 0 || options.pages.isEmpty()) {
+            throw new IllegalArgumentException("Out of range option");
+        }
+        return options;
+    }
+
+    private void set(String name, String value) {
+        try {
+            switch (name) {
+                case "label":
+                    label = value;
+                    break;
+                case "rate":
+                    rate = Double.parseDouble(value);
+                    break;
+                case "duration":
+                    durationSeconds = Integer.parseInt(value);
+                    break;
+                case "warmup":
+                    warmupSeconds = Integer.parseInt(value);
+                    break;
+                case "arrivals":
+                    if (!value.equals("uniform") && !value.equals("poisson")) {
+                        throw new IllegalArgumentException(
+                            "Unknown arrivals: " + value);
+                    }
+                    poisson = value.equals("poisson");
+                    break;
+                case "mix":
+                    setMix(value);
+                    break;
+                case "pages":
+                    pages = new ArrayList<>(Arrays.asList(value.split(",")));
+                    break;
+                case "comments":
+                    commentsNumber = Integer.parseInt(value);
+                    break;
+                case "seed":
+                    seedComments = Integer.parseInt(value);
+                    break;
+                case "users":
+                    users = Integer.parseInt(value);
+                    break;
+                case "concurrency":
+                    concurrency = Integer.parseInt(value);
+                    break;
+                case "random":
+                    randomSeed = Long.parseLong(value);
+                    break;
+                case "out":
+                    outputDirectory = new File(value);
+                    break;
+                case "baseline":
+                    baseline = new File(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: "
+                        + name);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + name + "="
+                + value);
+        }
+    }
+
+    /** Operations left out of the mix are not sent. */
+    private void setMix(String value) {
+        mix.clear();
+        for (String entry: value.split(",")) {
+            String[] parts = entry.split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Expected operation:weight: "
+                    + entry);
+            }
+            int weight = Integer.parseInt(parts[1]);
+            if (weight < 0) {
+                throw new IllegalArgumentException("Negative weight: " + entry);
+            }
+            mix.put(Operation.forLabel(parts[0]), weight);
+        }
+        if (mix.values().stream().mapToInt(Integer::intValue).sum() == 0) {
+            throw new IllegalArgumentException("The mix has no traffic");
+        }
+    }
+
+    String getLabel() {
+        return label;
+    }
+
+    double getRate() {
+        return rate;
+    }
+
+    int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    int getWarmupSeconds() {
+        return warmupSeconds;
+    }
+
+    boolean isPoisson() {
+        return poisson;
+    }
+
+    Map<Operation, Integer> getMix() {
+        return mix;
+    }
+
+    List<String> getPages() {
+        return pages;
+    }
+
+    int getCommentsNumber() {
+        return commentsNumber;
+    }
+
+    int getSeedComments() {
+        return seedComments;
+    }
+
+    int getUsers() {
+        return users;
+    }
+
+    int getConcurrency() {
+        return concurrency;
+    }
+
+    long getRandomSeed() {
+        return randomSeed;
+    }
+
+    File getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    File getBaseline() {
+        return baseline;
+    }
+
+    /** Returns the options as they are recorded in the report. */
+    Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("label", label);
+        map.put("rate", rate);
+        map.put("durationSeconds", durationSeconds);
+        map.put("warmupSeconds", warmupSeconds);
+        map.put("arrivals", poisson ? "poisson" : "uniform");
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        for (Map.Entry<Operation, Integer> entry: mix.entrySet()) {
+            weights.put(entry.getKey().getLabel(), entry.getValue());
+        }
+        map.put("mix", weights);
+        map.put("pages", pages);
+        map.put("commentsNumber", commentsNumber);
+        map.put("seedComments", seedComments);
+        map.put("users", users);
+        map.put("concurrency", concurrency);
+        map.put("randomSeed", randomSeed);
+        return map;
+    }
+}
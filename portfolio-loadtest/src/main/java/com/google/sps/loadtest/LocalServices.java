@@ -0,0 +1,91 @@
+package com.google.sps.loadtest;
+
+import com.google.appengine.tools.development.testing.LocalBlobstoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
+import com.google.apphosting.api.ApiProxy;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory Datastore, Blobstore, Users and Task Queue stand-ins, shared
+ * by every request of the embedded server. Tasks are only queued, not run.
+ * The services themselves are global, but App Engine looks up the calling
+ * user in a per-thread environment, so each request gets one made by
+ * forUser().
+ */
+final class LocalServices {
+
+    /** Host that Blobstore upload URLs point at */
+    static final String HOSTNAME = "localhost:8080";
+    /** The only user that is an admin, for the admin-only endpoints */
+    static final String ADMIN_EMAIL = "admin@example.com";
+
+    private final LocalServiceTestHelper helper;
+    private ApiProxy.Environment base;
+
+    LocalServices() {
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put("com.google.appengine.runtime.default_version_hostname",
+            HOSTNAME);
+        helper = new LocalServiceTestHelper(
+            new LocalDatastoreServiceTestConfig().setNoStorage(true),
+            new LocalBlobstoreServiceTestConfig().setNoStorage(true),
+            new LocalMemcacheServiceTestConfig(),
+            new LocalUserServiceTestConfig(),
+            new LocalTaskQueueTestConfig().setDisableAutoTaskExecution(true))
+            .setEnvIsLoggedIn(false)
+            .setEnvAuthDomain("example.com")
+            .setEnvAttributes(attributes);
+    }
+
+    /**
+     * Starts the services and keeps the calling thread's environment as the
+     * base of the request environments.
+     */
+    void start() {
+        helper.setUp();
+        base = ApiProxy.getCurrentEnvironment();
+    }
+
+    void stop() {
+        helper.tearDown();
+    }
+
+    /**
+     * Returns an environment in which userEmail is logged in, or nobody if
+     * it is null; ADMIN_EMAIL is logged in as an admin. Everything else comes from the base environment, except
+     * the attributes, which are per request.
+     */
+    ApiProxy.Environment forUser(String userEmail) {
+        Map<String, Object> attributes = new ConcurrentHashMap<>(
+            base.getAttributes());
+        return (ApiProxy.Environment) Proxy.newProxyInstance(
+            LocalServices.class.getClassLoader(),
+            new Class<?>[] {ApiProxy.Environment.class},
+            (proxy, m, args) -> {
+                switch (m.getName()) {
+                    case "getEmail":
+                        return userEmail;
+                    case "isLoggedIn":
+                        return userEmail != null;
+                    case "isAdmin":
+                        return ADMIN_EMAIL.equals(userEmail);
+                    case "getAttributes":
+                        return attributes;
+                    default:
+                        try {
+                            return m.invoke(base, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                }
+            });
+    }
+}
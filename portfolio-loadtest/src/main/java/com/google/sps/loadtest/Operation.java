@@ -0,0 +1,48 @@
+package com.google.sps.loadtest;
+
+/**
+ * The kinds of requests the load test sends, with their default share of
+ * the traffic.
+ */
+enum Operation {
+    /** A batch of comments of a page */
+    DATA_GET("data-get", 70),
+    /** A comment post, without an image */
+    DATA_POST("data-post", 10),
+    /** A delete of a single comment */
+    DELETE("delete", 5),
+    /** The login state */
+    USER("user", 10),
+    /** A Blobstore upload URL, as fetched before every comment form */
+    UPLOAD_URL("upload-url", 5);
+
+    private final String label;
+    private final int defaultWeight;
+
+    Operation(String label, int defaultWeight) {
+        this.label = label;
+        this.defaultWeight = defaultWeight;
+    }
+
+    String getLabel() {
+        return label;
+    }
+
+    int getDefaultWeight() {
+        return defaultWeight;
+    }
+
+    /**
+     * Returns the operation with the label.
+     *
+     * @throws IllegalArgumentException if there is none
+     */
+    static Operation forLabel(String label) {
+        for (Operation operation: values()) {
+            if (operation.label.equals(label)) {
+                return operation;
+            }
+        }
+        throw new IllegalArgumentException("Unknown operation: " + label);
+    }
+}
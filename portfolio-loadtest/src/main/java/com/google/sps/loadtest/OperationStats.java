@@ -0,0 +1,81 @@
+package com.google.sps.loadtest;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * What the measured requests of one operation got. Latency counts from the
+ * moment a request was due to be sent, so time spent waiting behind slow
+ * requests is included; service time counts from when it was sent.
+ */
+final class OperationStats {
+
+    /** Longest duration recorded exactly; longer ones are clamped */
+    static final long MAX_MICROS = TimeUnit.MINUTES.toMicros(5);
+
+    private final Histogram latency = new ConcurrentHistogram(MAX_MICROS, 3);
+    private final Histogram serviceTime =
+        new ConcurrentHistogram(MAX_MICROS, 3);
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+
+    /**
+     * Records a response, or a failure to get one if status is -1.
+     */
+    void record(int status, boolean isError, long latencyNanos,
+        long serviceNanos) {
+        requests.increment();
+        if (isError) {
+            errors.increment();
+        }
+        statuses.computeIfAbsent(status, key -> new LongAdder()).increment();
+        latency.recordValue(toMicros(latencyNanos));
+        serviceTime.recordValue(toMicros(serviceNanos));
+    }
+
+    /** Records a request that could not be made, like a delete without ids */
+    void skip() {
+        skipped.increment();
+    }
+
+    long getRequests() {
+        return requests.sum();
+    }
+
+    long getErrors() {
+        return errors.sum();
+    }
+
+    long getSkipped() {
+        return skipped.sum();
+    }
+
+    /** Returns the count of each status, -1 standing for no response. */
+    Map<Integer, Long> getStatuses() {
+        Map<Integer, Long> counts = new TreeMap<>();
+        for (Map.Entry<Integer, LongAdder> entry: statuses.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().sum());
+        }
+        return counts;
+    }
+
+    Histogram getLatency() {
+        return latency;
+    }
+
+    Histogram getServiceTime() {
+        return serviceTime;
+    }
+
+    private static long toMicros(long nanos) {
+        return Math.min(MAX_MICROS, Math.max(0,
+            TimeUnit.NANOSECONDS.toMicros(nanos)));
+    }
+}
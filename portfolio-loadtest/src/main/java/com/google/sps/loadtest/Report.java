@@ -0,0 +1,176 @@
+package com.google.sps.loadtest;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import org.HdrHistogram.Histogram;
+
+/**
+ * The results of a run, written to the output directory as
+ * label-time.json, a text summary next to it and the server's /metrics and
+ * /stats at the end of the run. The JSON of an earlier run can be passed as
+ * the baseline to print the change of every operation.
+ */
+final class Report {
+
+    static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private static final Gson GSON = new GsonBuilder()
+        .setPrettyPrinting()
+        .serializeSpecialFloatingPointValues()
+        .create();
+
+    private final Map<String, Object> results = new LinkedHashMap<>();
+    private final StringBuilder summary = new StringBuilder();
+
+    Report(LoadTestOptions options, LoadGenerator generator) {
+        double seconds = generator.getMeasuredNanos() / 1e9;
+        results.put("options", options.toMap());
+        results.put("finished", new Date().toString());
+        results.put("maxInFlight", generator.getMaxInFlight());
+
+        summary.append(String.format(Locale.ROOT,
+            "%-11s %8s %9s %7s %8s %8s %8s %8s %8s%n", "operation",
+            "requests", "per sec", "errors", "p50 ms", "p90 ms", "p99 ms",
+            "p99.9 ms", "max ms"));
+        Map<String, Object> operations = new LinkedHashMap<>();
+        for (Map.Entry<Operation, OperationStats> entry:
+            generator.getStats().entrySet()) {
+            OperationStats stats = entry.getValue();
+            if (stats.getRequests() == 0 && stats.getSkipped() == 0) {
+                continue;
+            }
+            Map<String, Object> operation = new LinkedHashMap<>();
+            operation.put("requests", stats.getRequests());
+            operation.put("perSecond", stats.getRequests() / seconds);
+            operation.put("errors", stats.getErrors());
+            operation.put("skipped", stats.getSkipped());
+            operation.put("statuses", stats.getStatuses());
+            operation.put("latencyMillis", toMillis(stats.getLatency()));
+            operation.put("serviceTimeMillis",
+                toMillis(stats.getServiceTime()));
+            operations.put(entry.getKey().getLabel(), operation);
+
+            Histogram latency = stats.getLatency();
+            summary.append(String.format(Locale.ROOT,
+                "%-11s %8d %9.1f %7d %8.2f %8.2f %8.2f %8.2f %8.2f%n",
+                entry.getKey().getLabel(), stats.getRequests(),
+                stats.getRequests() / seconds, stats.getErrors(),
+                getMillis(latency, 50), getMillis(latency, 90),
+                getMillis(latency, 99), getMillis(latency, 99.9),
+                latency.getMaxValue() / 1e3));
+        }
+        results.put("operations", operations);
+    }
+
+    /**
+     * Adds the change of throughput and latency percentiles against an
+     * earlier report to the summary.
+     */
+    void compare(File baseline) throws IOException {
+        JsonObject before;
+        try (Reader reader = Files.newBufferedReader(baseline.toPath(),
+            StandardCharsets.UTF_8)) {
+            before = JsonParser.parseReader(reader).getAsJsonObject()
+                .getAsJsonObject("operations");
+        }
+
+        summary.append(String.format(Locale.ROOT, "%nChange against %s%n",
+            baseline.getName()));
+        summary.append(String.format(Locale.ROOT, "%-11s %9s %8s %8s %8s%n",
+            "operation", "per sec", "p50", "p99", "p99.9"));
+        JsonObject after = GSON.toJsonTree(results.get("operations"))
+            .getAsJsonObject();
+        for (Map.Entry<String, JsonElement> entry: after.entrySet()) {
+            if (!before.has(entry.getKey())) {
+                continue;
+            }
+            JsonObject old = before.getAsJsonObject(entry.getKey());
+            JsonObject now = entry.getValue().getAsJsonObject();
+            summary.append(String.format(Locale.ROOT,
+                "%-11s %8.1f%% %7.1f%% %7.1f%% %7.1f%%%n", entry.getKey(),
+                getChange(old, now, null, "perSecond"),
+                getChange(old, now, "latencyMillis", "p50"),
+                getChange(old, now, "latencyMillis", "p99"),
+                getChange(old, now, "latencyMillis", "p99.9")));
+        }
+    }
+
+    String getSummary() {
+        return summary.toString();
+    }
+
+    /**
+     * Writes the report files and returns the JSON one.
+     */
+    File write(File directory, String label, String serverMetrics,
+        String serverStats) throws IOException {
+        directory.mkdirs();
+        String name = label + "-" + new SimpleDateFormat("yyyyMMdd-HHmmss",
+            Locale.ROOT).format(new Date());
+        if (serverStats != null) {
+            results.put("serverStats", JsonParser.parseString(serverStats));
+        }
+
+        File json = new File(directory, name + ".json");
+        try (Writer writer = Files.newBufferedWriter(json.toPath(),
+            StandardCharsets.UTF_8)) {
+            GSON.toJson(results, writer);
+        }
+        Files.write(new File(directory, name + ".txt").toPath(),
+            summary.toString().getBytes(StandardCharsets.UTF_8));
+        if (serverMetrics != null) {
+            Files.write(new File(directory, name + "-metrics.txt").toPath(),
+                serverMetrics.getBytes(StandardCharsets.UTF_8));
+        }
+        return json;
+    }
+
+    private static Map<String, Object> toMillis(Histogram histogram) {
+        Map<String, Object> millis = new LinkedHashMap<>();
+        for (double percentile: PERCENTILES) {
+            millis.put("p" + new BigDecimal(percentile)
+                .stripTrailingZeros().toPlainString(),
+                getMillis(histogram, percentile));
+        }
+        millis.put("max", histogram.getMaxValue() / 1e3);
+        millis.put("mean", histogram.getMean() / 1e3);
+        return millis;
+    }
+
+    private static double getMillis(Histogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1e3;
+    }
+
+    /** Returns the change of a value in percent, or NaN if it is missing. */
+    private static double getChange(JsonObject before, JsonObject after,
+        String group, String name) {
+        if (group != null) {
+            if (!before.has(group) || !after.has(group)) {
+                return Double.NaN;
+            }
+            before = before.getAsJsonObject(group);
+            after = after.getAsJsonObject(group);
+        }
+        if (!before.has(name) || !after.has(name)) {
+            return Double.NaN;
+        }
+        double old = before.get(name).getAsDouble();
+        return old == 0 ? Double.NaN
+            : (after.get(name).getAsDouble() - old) * 100 / old;
+    }
+}
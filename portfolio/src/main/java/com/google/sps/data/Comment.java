@@ -11,10 +11,27 @@ public final class Comment {
     private final String emotion;
     private final boolean isAbleToDelete;
     private final String imageUrl;
+    private final String thumbnailUrl;
     private final String id;
+    /** The stored JSON of the comment, if any; never serialized itself */
+    private final transient String json;
 
     public Comment(String content, String userName, String userEmail,
         Date date, String emotion, boolean isAbleToDelete, String id, String imageUrl) {
+        this(content, userName, userEmail, date, emotion, isAbleToDelete, id,
+            imageUrl, null);
+    }
+
+    public Comment(String content, String userName, String userEmail,
+        Date date, String emotion, boolean isAbleToDelete, String id,
+        String imageUrl, String thumbnailUrl) {
+        this(content, userName, userEmail, date, emotion, isAbleToDelete, id,
+            imageUrl, thumbnailUrl, null);
+    }
+
+    private Comment(String content, String userName, String userEmail,
+        Date date, String emotion, boolean isAbleToDelete, String id,
+        String imageUrl, String thumbnailUrl, String json) {
         this.content = content;
         this.userName = userName;
         this.userEmail = userEmail;
@@ -22,7 +39,9 @@ public final class Comment {
         this.emotion = emotion;
         this.isAbleToDelete = isAbleToDelete;
         this.imageUrl = imageUrl;
+        this.thumbnailUrl = thumbnailUrl;
         this.id = id;
+        this.json = json;
     }
 
     public String getContent() {
@@ -52,9 +71,50 @@ public final class Comment {
     public String imageUrl() {
         return imageUrl;
     }
+
+    public String getThumbnailUrl() {
+        return thumbnailUrl;
+    }
   
     public String getId() {
         return id;
     }
 
+    /**
+     * Returns the JSON the comment was stored with, as anyone but its author
+     * sees it, or null if it was not stored with one.
+     */
+    public String getJson() {
+        return json;
+    }
+
+    /**
+     * Returns a copy of the comment that can be deleted only by its author.
+     */
+    public Comment forViewer(String viewerEmail) {
+        boolean isViewerAuthor = viewerEmail != null
+            && viewerEmail.equals(userEmail);
+        if (isViewerAuthor == isAbleToDelete) {
+            return this;
+        }
+        return new Comment(content, userName, userEmail, date, emotion,
+            isViewerAuthor, id, imageUrl, thumbnailUrl);
+    }
+
+    /**
+     * Returns a copy of the comment with the URLs of its processed image.
+     */
+    public Comment withImage(String imageUrl, String thumbnailUrl) {
+        return new Comment(content, userName, userEmail, date, emotion,
+            isAbleToDelete, id, imageUrl, thumbnailUrl);
+    }
+
+    /**
+     * Returns a copy of the comment that carries its stored JSON.
+     */
+    public Comment withJson(String json) {
+        return new Comment(content, userName, userEmail, date, emotion,
+            isAbleToDelete, id, imageUrl, thumbnailUrl, json);
+    }
+
 }
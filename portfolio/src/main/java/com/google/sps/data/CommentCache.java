@@ -0,0 +1,145 @@
+/** Class containing the in-process cache of comment feed batches */
+package com.google.sps.data;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache of materialized comment batches, keyed by page.
+ *
+ * Cached comments are shared by every viewer, so they are stored with
+ * isAbleToDelete unset and must be passed through Comment.forViewer before
+ * they are returned. Any write to a page must call invalidate(page). Readers
+ * take getGeneration(page) before going to Datastore, so a batch read before
+ * a write is never stored after it.
+ *
+ * Invalidation only reaches this instance, so batches also expire after
+ * TTL_MILLIS to pick up writes made on other instances.
+ */
+public final class CommentCache {
+
+    static final int DEFAULT_MAX_PAGES = 64;
+    static final int MAX_BATCHES_PER_PAGE = 16;
+    static final long TTL_MILLIS = 10000;
+
+    private static final CommentCache INSTANCE =
+        new CommentCache(DEFAULT_MAX_PAGES);
+
+    private final int maxPages;
+    /** Batches of each page, keyed by the limit and cursor they answer */
+    private final LinkedHashMap<String, Map<String, Entry>> pages;
+    /** Number of invalidations seen by each page */
+    private final Map<String, Long> generations = new HashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public CommentCache(int maxPages) {
+        this.maxPages = maxPages;
+        this.pages = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    public static CommentCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the cached batch, or null if it has to be read from Datastore.
+     */
+    public synchronized CommentPage get(String page, int limit, String cursor) {
+        Map<String, Entry> batches = pages.get(page);
+        Entry entry = batches == null ? null
+            : batches.get(batchKey(limit, cursor));
+        if (entry != null
+            && System.currentTimeMillis() > entry.expiresMillis) {
+            batches.remove(batchKey(limit, cursor));
+            evictions.incrementAndGet();
+            entry = null;
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.batch;
+    }
+
+    public synchronized long getGeneration(String page) {
+        Long generation = generations.get(page);
+        return generation == null ? 0 : generation;
+    }
+
+    /**
+     * Stores the batch unless the page was written since the generation
+     * was taken.
+     */
+    public synchronized void put(String page, int limit, String cursor,
+        CommentPage batch, long generation) {
+        if (generation != getGeneration(page)) {
+            return;
+        }
+        Map<String, Entry> batches = pages.get(page);
+        if (batches == null) {
+            batches = new HashMap<>();
+            pages.put(page, batches);
+        }
+        if (batches.size() >= MAX_BATCHES_PER_PAGE) {
+            evictions.addAndGet(batches.size());
+            batches.clear();
+        }
+        batches.put(batchKey(limit, cursor), new Entry(batch,
+            System.currentTimeMillis() + TTL_MILLIS));
+
+        Iterator<Map<String, Entry>> eldest = pages.values().iterator();
+        while (pages.size() > maxPages) {
+            evictions.addAndGet(eldest.next().size());
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Drops every cached batch of the page. Called after each write.
+     */
+    public synchronized void invalidate(String page) {
+        pages.remove(page);
+        generations.put(page, getGeneration(page) + 1);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public synchronized int getSize() {
+        int size = 0;
+        for (Map<String, Entry> batches: pages.values()) {
+            size += batches.size();
+        }
+        return size;
+    }
+
+    private static final class Entry {
+
+        private final CommentPage batch;
+        private final long expiresMillis;
+
+        Entry(CommentPage batch, long expiresMillis) {
+            this.batch = batch;
+            this.expiresMillis = expiresMillis;
+        }
+    }
+
+    private static String batchKey(int limit, String cursor) {
+        return limit + ":" + (cursor == null ? "" : cursor);
+    }
+}
@@ -0,0 +1,66 @@
+/** Class containing the in-process cache of page comment counts */
+package com.google.sps.data;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches the comment count of each page under the page version it was
+ * read at. A write to the page changes its version, so a count read before
+ * the write is never returned after it. Counts expire after TTL_MILLIS to
+ * pick up writes made on other instances.
+ */
+public final class CommentCountCache {
+
+    static final long TTL_MILLIS = 10000;
+    static final int MAX_PAGES = 1024;
+
+    private static final CommentCountCache INSTANCE = new CommentCountCache();
+
+    private final ConcurrentMap<String, Entry> counts =
+        new ConcurrentHashMap<>();
+
+    CommentCountCache() {
+    }
+
+    public static CommentCountCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the count of the page at that version, or null if it has to
+     * be read from the repository.
+     */
+    public Long get(String page, String version) {
+        Entry entry = counts.get(page);
+        if (entry == null || !entry.version.equals(version)
+            || System.currentTimeMillis() > entry.expiresMillis) {
+            return null;
+        }
+        return entry.count;
+    }
+
+    /**
+     * Stores the count of the page, read at the version taken before the
+     * read.
+     */
+    public void put(String page, String version, long count) {
+        if (counts.size() >= MAX_PAGES && !counts.containsKey(page)) {
+            counts.clear();
+        }
+        counts.put(page, new Entry(version, count,
+            System.currentTimeMillis() + TTL_MILLIS));
+    }
+
+    private static final class Entry {
+
+        private final String version;
+        private final long count;
+        private final long expiresMillis;
+
+        Entry(String version, long count, long expiresMillis) {
+            this.version = version;
+            this.count = count;
+            this.expiresMillis = expiresMillis;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+/** Interface of the results of a comment query */
+package com.google.sps.data;
+import java.util.Iterator;
+
+public interface CommentIterator extends Iterator<Comment> {
+
+    /**
+     * Returns the cursor that continues the query after the last comment
+     * returned by next().
+     */
+    String getCursor();
+
+}
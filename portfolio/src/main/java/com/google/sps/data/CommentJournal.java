@@ -0,0 +1,139 @@
+/** Class containing the local journal of write-behind comments */
+package com.google.sps.data;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Append-only file of newline-delimited JSON records. A "put" record holds a
+ * comment that was acknowledged to its author, an "ack" record marks it as
+ * stored in Datastore. Every append is forced to disk before it returns.
+ *
+ * Not thread-safe; WriteBehindQueue serializes all access.
+ */
+public final class CommentJournal {
+
+    private static final Gson GSON = new Gson();
+
+    private final File file;
+    private FileOutputStream out;
+    private Writer writer;
+
+    public CommentJournal(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns the comments that were put but never acked, in journal order.
+     * A torn last line, left by a crash in the middle of an append, is
+     * skipped.
+     */
+    public Map<String, PendingComment> replay() throws IOException {
+        Map<String, PendingComment> pending = new LinkedHashMap<>();
+        if (!file.exists()) {
+            return pending;
+        }
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+            Files.newInputStream(file.toPath()), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Record record;
+                try {
+                    record = GSON.fromJson(line, Record.class);
+                } catch (JsonParseException e) {
+                    System.err.println("Skipping unreadable journal record");
+                    continue;
+                }
+                if (record == null) {
+                    continue;
+                }
+                if ("put".equals(record.op) && record.comment != null) {
+                    pending.put(record.comment.getId(), record.comment);
+                } else if ("ack".equals(record.op)) {
+                    pending.remove(record.id);
+                }
+            }
+        }
+        return pending;
+    }
+
+    public void appendPut(PendingComment comment) throws IOException {
+        append(new Record("put", comment.getId(), comment));
+    }
+
+    public void appendAck(String id) throws IOException {
+        append(new Record("ack", id, null));
+    }
+
+    /**
+     * Forces the appended acks to disk. Acks are not forced one by one,
+     * because losing one only means the comment is put again on replay.
+     */
+    public void sync() throws IOException {
+        if (out != null) {
+            writer.flush();
+            out.getFD().sync();
+        }
+    }
+
+    /**
+     * Empties the journal. Only called when nothing is pending.
+     */
+    public void truncate() throws IOException {
+        if (out != null) {
+            writer.flush();
+            out.getChannel().truncate(0);
+            out.getFD().sync();
+        }
+    }
+
+    public void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+            out = null;
+        }
+    }
+
+    private void append(Record record) throws IOException {
+        if (writer == null) {
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (parent != null) {
+                parent.mkdirs();
+            }
+            out = new FileOutputStream(file, true);
+            writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        }
+        writer.write(GSON.toJson(record));
+        writer.write('\n');
+        if (record.comment != null) {
+            writer.flush();
+            out.getFD().sync();
+        }
+    }
+
+    /** One line of the journal */
+    private static final class Record {
+
+        private final String op;
+        private final String id;
+        private final PendingComment comment;
+
+        Record(String op, String id, PendingComment comment) {
+            this.op = op;
+            this.id = id;
+            this.comment = comment;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/** Class containing the stored JSON form of comments */
+package com.google.sps.data;
+import com.google.gson.Gson;
+
+/**
+ * Serializes comments once, when they are stored, so reading them back
+ * only copies the stored JSON into the response. The stored form is the one
+ * every viewer but the author sees; for the author the isAbleToDelete flag
+ * is patched in.
+ *
+ * Enabled by the comments.storeJson system property.
+ */
+public final class CommentJson {
+
+    static final String ENABLED_PROPERTY = "comments.storeJson";
+
+    private static final Gson GSON = new Gson();
+    private static final String NOT_DELETABLE = "\"isAbleToDelete\":false";
+    private static final String DELETABLE = "\"isAbleToDelete\":true";
+
+    private CommentJson() {
+    }
+
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(ENABLED_PROPERTY);
+    }
+
+    /**
+     * Returns the JSON of the comment as anyone but its author sees it.
+     */
+    public static String serialize(Comment comment) {
+        return GSON.toJson(comment.forViewer(null), Comment.class);
+    }
+
+    /**
+     * Returns the stored JSON of the comment as the viewer sees it, or null
+     * if the comment has none.
+     */
+    public static String forViewer(Comment comment, String viewerEmail) {
+        String json = comment.getJson();
+        if (json == null || viewerEmail == null
+            || !viewerEmail.equals(comment.getUserEmail())) {
+            return json;
+        }
+        // Quotes inside string values are escaped, so the first match is
+        // the flag itself.
+        int index = json.indexOf(NOT_DELETABLE);
+        if (index < 0) {
+            return null;
+        }
+        return json.substring(0, index) + DELETABLE
+            + json.substring(index + NOT_DELETABLE.length());
+    }
+}
@@ -0,0 +1,24 @@
+/** Class containing one batch of the comments feed */
+package com.google.sps.data;
+import java.util.List;
+
+public final class CommentPage {
+
+    private final List<Comment> comments;
+    /** Web-safe cursor of the next batch, or null if this is the last one */
+    private final String cursor;
+
+    public CommentPage(List<Comment> comments, String cursor) {
+        this.comments = comments;
+        this.cursor = cursor;
+    }
+
+    public List<Comment> getComments() {
+        return comments;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+}
@@ -0,0 +1,64 @@
+/** Class containing the comment repository of the application */
+package com.google.sps.data;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Picks the comment repository from the comments.repository system
+ * property: "datastore", the default, or "local" for the embedded store at
+ * comments.repository.path. Its calls are timed in Metrics.
+ */
+public final class CommentRepositories {
+
+    static final String REPOSITORY_PROPERTY = "comments.repository";
+    static final String PATH_PROPERTY = "comments.repository.path";
+
+    private static volatile CommentRepository repository;
+
+    private CommentRepositories() {
+    }
+
+    public static CommentRepository get() {
+        CommentRepository current = repository;
+        if (current == null) {
+            synchronized (CommentRepositories.class) {
+                if (repository == null) {
+                    repository = create();
+                }
+                current = repository;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Replaces the repository, for example to run against a stand-in.
+     */
+    public static synchronized void set(CommentRepository newRepository) {
+        repository = newRepository;
+    }
+
+    private static CommentRepository create() {
+        return new TimedCommentRepository(open());
+    }
+
+    private static CommentRepository open() {
+        String type = System.getProperty(REPOSITORY_PROPERTY, "datastore");
+        if (type.equals("datastore")) {
+            return new DatastoreCommentRepository();
+        }
+        if (type.equals("local")) {
+            File file = new File(System.getProperty(PATH_PROPERTY,
+                new File(System.getProperty("java.io.tmpdir"),
+                    "comments.log").getPath()));
+            try {
+                return new LocalCommentRepository(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(
+                    "Could not open the comment log " + file, e);
+            }
+        }
+        throw new IllegalStateException("Unknown comment repository: " + type);
+    }
+}
@@ -0,0 +1,85 @@
+/** Interface of the storage of comments */
+package com.google.sps.data;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * Storage of the comments of every page. Comments are stored and returned
+ * viewer-neutral, with isAbleToDelete unset.
+ *
+ * Implementations are thread-safe. Storage failures surface as unchecked
+ * exceptions.
+ */
+public interface CommentRepository {
+
+    /**
+     * Returns a new, unique comment id for the page without a round-trip
+     * to the storage.
+     */
+    String newId(String page);
+
+    /**
+     * Returns whether a comment with that id can be saved to the page, as
+     * one with an id from newId can.
+     */
+    boolean isValidId(String page, String id);
+
+    /**
+     * Stores the comments of the page. Comments without an id get a new one,
+     * comments with an id replace the stored comment with that id.
+     * Returns the stored comments, in order.
+     */
+    List<Comment> save(String page, List<Comment> comments);
+
+    /**
+     * Returns up to limit comments of the page, newest first, starting after
+     * the cursor returned by an earlier query, or at the newest comment if
+     * cursor is null. Implementations start fetching without blocking, so
+     * queries of several pages opened in a row run concurrently.
+     *
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    CommentIterator query(String page, int limit, String cursor);
+
+    /**
+     * Returns the comment of the page with that id, or null if there is
+     * none.
+     */
+    Comment get(String page, String id);
+
+    /**
+     * Replaces the comment of the page with that id by change applied to
+     * it, atomically, so a comment deleted meanwhile is not stored again.
+     * Returns the stored comment, or null if there is none.
+     */
+    Comment update(String page, String id, UnaryOperator<Comment> change);
+
+    /**
+     * Deletes the comment of the page with that id, if there is one.
+     */
+    void delete(String page, String id);
+
+    /**
+     * Deletes up to max comments of the page. Returns the ids of the
+     * deleted comments; fewer than max means the page is now empty.
+     */
+    List<String> deleteChunk(String page, int max);
+
+    /**
+     * Returns the number of stored comments of the page.
+     */
+    long count(String page);
+
+    /**
+     * Returns the number of stored comments of the page with each emotion,
+     * in total and for every UTC day since from.
+     */
+    EmotionCounts getEmotionCounts(String page, LocalDate from);
+
+    /**
+     * Returns every page that has comments.
+     */
+    List<String> getPages();
+
+}
@@ -0,0 +1,337 @@
+/** Class containing the in-memory full-text index of comments */
+package com.google.sps.data;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Inverted index over the content and user name of comments, one per page,
+ * ranked with BM25.
+ *
+ * Memory is bounded by the total number of postings, that is distinct terms
+ * per comment. Once the budget is exceeded the comments indexed first are
+ * dropped, so search covers the most recent comments.
+ */
+public final class CommentSearchIndex {
+
+    static final int DEFAULT_MAX_POSTINGS = 1000000;
+    static final int MAX_TERMS_PER_COMMENT = 200;
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private static final CommentSearchIndex INSTANCE =
+        new CommentSearchIndex(DEFAULT_MAX_POSTINGS);
+
+    private final int maxPostings;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, PageIndex> pages = new HashMap<>();
+    /** Every indexed comment, oldest first, for eviction */
+    private final LinkedHashMap<DocKey, Doc> docs = new LinkedHashMap<>();
+    private int postings;
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    public CommentSearchIndex(int maxPostings) {
+        this.maxPostings = maxPostings;
+    }
+
+    public static CommentSearchIndex getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Indexes the comment, replacing an earlier version with the same id.
+     * The comment is stored viewer-neutral.
+     */
+    public void add(String page, Comment comment) {
+        Map<String, Integer> termFrequencies = new HashMap<>();
+        int length = 0;
+        for (String term: tokenize(comment.getContent() + " "
+            + comment.getUserName())) {
+            if (termFrequencies.size() == MAX_TERMS_PER_COMMENT
+                && !termFrequencies.containsKey(term)) {
+                continue;
+            }
+            termFrequencies.merge(term, 1, Integer::sum);
+            length++;
+        }
+
+        lock.writeLock().lock();
+        try {
+            DocKey key = new DocKey(page, comment.getId());
+            removeLocked(key);
+
+            PageIndex pageIndex = pages.get(page);
+            if (pageIndex == null) {
+                pageIndex = new PageIndex();
+                pages.put(page, pageIndex);
+            }
+            Doc doc = new Doc(comment.forViewer(null), termFrequencies, length);
+            for (Map.Entry<String, Integer> entry: termFrequencies.entrySet()) {
+                pageIndex.postings
+                    .computeIfAbsent(entry.getKey(), term -> new HashMap<>())
+                    .put(comment.getId(), entry.getValue());
+            }
+            pageIndex.docs.put(comment.getId(), doc);
+            pageIndex.totalLength += length;
+            docs.put(key, doc);
+            postings += termFrequencies.size();
+
+            Iterator<DocKey> oldest = docs.keySet().iterator();
+            while (postings > maxPostings && oldest.hasNext()) {
+                DocKey evicted = oldest.next();
+                oldest.remove();
+                unindexLocked(evicted);
+                evictions.incrementAndGet();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String page, String id) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(new DocKey(page, id));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removePage(String page) {
+        lock.writeLock().lock();
+        try {
+            PageIndex pageIndex = pages.remove(page);
+            if (pageIndex == null) {
+                return;
+            }
+            for (Map.Entry<String, Doc> entry: pageIndex.docs.entrySet()) {
+                docs.remove(new DocKey(page, entry.getKey()));
+                postings -= entry.getValue().termFrequencies.size();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns up to k comments of the page that match any term of the query,
+     * best match first. Ties go to the newer comment.
+     */
+    public List<Comment> search(String page, String query, int k) {
+        List<String> terms = new ArrayList<>(new LinkedHashSet<>(
+            tokenize(query)));
+        if (terms.isEmpty() || k <= 0) {
+            return Collections.emptyList();
+        }
+
+        lock.readLock().lock();
+        try {
+            PageIndex pageIndex = pages.get(page);
+            if (pageIndex == null || pageIndex.docs.isEmpty()) {
+                return Collections.emptyList();
+            }
+
+            int docCount = pageIndex.docs.size();
+            double averageLength = Math.max(1.0,
+                (double) pageIndex.totalLength / docCount);
+            Map<String, Double> scores = new HashMap<>();
+            for (String term: terms) {
+                Map<String, Integer> postingList = pageIndex.postings.get(term);
+                if (postingList == null) {
+                    continue;
+                }
+                double idf = Math.log(1 + (docCount - postingList.size() + 0.5)
+                    / (postingList.size() + 0.5));
+                for (Map.Entry<String, Integer> posting: postingList.entrySet()) {
+                    int tf = posting.getValue();
+                    int length = pageIndex.docs.get(posting.getKey()).length;
+                    double score = idf * tf * (K1 + 1)
+                        / (tf + K1 * (1 - B + B * length / averageLength));
+                    scores.merge(posting.getKey(), score, Double::sum);
+                }
+            }
+
+            // Min-heap of the best k so far, worst on top.
+            PriorityQueue<ScoredDoc> best = new PriorityQueue<>(k + 1);
+            for (Map.Entry<String, Double> entry: scores.entrySet()) {
+                best.add(new ScoredDoc(pageIndex.docs.get(entry.getKey()),
+                    entry.getValue()));
+                if (best.size() > k) {
+                    best.poll();
+                }
+            }
+
+            List<Comment> results = new ArrayList<>(best.size());
+            while (!best.isEmpty()) {
+                results.add(best.poll().doc.comment);
+            }
+            Collections.reverse(results);
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getSize() {
+        lock.readLock().lock();
+        try {
+            return docs.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getPostings() {
+        lock.readLock().lock();
+        try {
+            return postings;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Splits text into lower case runs of letters and digits.
+     */
+    static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null) {
+            return terms;
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean isWordChar = i < lower.length()
+                && Character.isLetterOrDigit(lower.charAt(i));
+            if (isWordChar && start < 0) {
+                start = i;
+            } else if (!isWordChar && start >= 0) {
+                terms.add(lower.substring(start, i));
+                start = -1;
+            }
+        }
+        return terms;
+    }
+
+    private void removeLocked(DocKey key) {
+        if (docs.remove(key) != null) {
+            unindexLocked(key);
+        }
+    }
+
+    /** Removes the comment from its page index; the caller updates docs */
+    private void unindexLocked(DocKey key) {
+        PageIndex pageIndex = pages.get(key.page);
+        if (pageIndex == null) {
+            return;
+        }
+        Doc doc = pageIndex.docs.remove(key.id);
+        if (doc == null) {
+            return;
+        }
+        for (String term: doc.termFrequencies.keySet()) {
+            Map<String, Integer> postingList = pageIndex.postings.get(term);
+            postingList.remove(key.id);
+            if (postingList.isEmpty()) {
+                pageIndex.postings.remove(term);
+            }
+        }
+        pageIndex.totalLength -= doc.length;
+        postings -= doc.termFrequencies.size();
+        if (pageIndex.docs.isEmpty()) {
+            pages.remove(key.page);
+        }
+    }
+
+    /** Index of the comments of one page */
+    private static final class PageIndex {
+
+        /** Term frequency of each comment id, by term */
+        private final Map<String, Map<String, Integer>> postings =
+            new HashMap<>();
+        private final Map<String, Doc> docs = new HashMap<>();
+        private long totalLength;
+    }
+
+    /** An indexed comment */
+    private static final class Doc {
+
+        private final Comment comment;
+        private final Map<String, Integer> termFrequencies;
+        private final int length;
+
+        Doc(Comment comment, Map<String, Integer> termFrequencies, int length) {
+            this.comment = comment;
+            this.termFrequencies = termFrequencies;
+            this.length = length;
+        }
+    }
+
+    /** Comment id within its page */
+    private static final class DocKey {
+
+        private final String page;
+        private final String id;
+
+        DocKey(String page, String id) {
+            this.page = page;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof DocKey)) {
+                return false;
+            }
+            DocKey that = (DocKey) other;
+            return page.equals(that.page) && id.equals(that.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return page.hashCode() * 31 + id.hashCode();
+        }
+    }
+
+    private static final class ScoredDoc implements Comparable<ScoredDoc> {
+
+        private final Doc doc;
+        private final double score;
+
+        ScoredDoc(Doc doc, double score) {
+            this.doc = doc;
+            this.score = score;
+        }
+
+        @Override
+        public int compareTo(ScoredDoc other) {
+            int byScore = Double.compare(score, other.score);
+            if (byScore != 0) {
+                return byScore;
+            }
+            return compareDates(doc.comment, other.doc.comment);
+        }
+
+        private static int compareDates(Comment a, Comment b) {
+            if (a.getDate() == null || b.getDate() == null) {
+                return 0;
+            }
+            return a.getDate().compareTo(b.getDate());
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/** Class containing a comment submitted for import */
+package com.google.sps.data;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+public final class CommentSubmission {
+
+    public static final int MAX_TEXT_LENGTH = 1000;
+    public static final Set<String> EMOTIONS = new HashSet<>(
+        Arrays.asList("", "happy", "laughing", "surprised", "sad"));
+
+    private String author;
+    private String text;
+    private String emotion;
+    private String userEmail;
+    private String imageUrl;
+    private String thumbnailUrl;
+    private Date date;
+
+    public String getAuthor() {
+        return author == null ? "unknown" : author;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public String getEmotion() {
+        return emotion == null ? "" : emotion;
+    }
+
+    public String getUserEmail() {
+        return userEmail;
+    }
+
+    public String getImageUrl() {
+        return imageUrl;
+    }
+
+    public String getThumbnailUrl() {
+        return thumbnailUrl;
+    }
+
+    public Date getDate() {
+        return date;
+    }
+
+    /**
+     * Returns why the submission can't be stored, or null if it is valid.
+     */
+    public String validate() {
+        if (text == null || text.trim().isEmpty()) {
+            return "text is empty";
+        }
+        if (text.length() > MAX_TEXT_LENGTH) {
+            return "text is longer than " + MAX_TEXT_LENGTH + " characters";
+        }
+        if (!EMOTIONS.contains(getEmotion())) {
+            return "unknown emotion: " + emotion;
+        }
+        return null;
+    }
+
+}
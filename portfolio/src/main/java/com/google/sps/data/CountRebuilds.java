@@ -0,0 +1,187 @@
+/** Class containing the rebuilds of the comment counts of pages */
+package com.google.sps.data;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Text;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Rebuilds the counts that DatastoreCommentRepository keeps of a page from
+ * a scan of its comments, as a chain of Task Queue tasks of SCAN_CHUNK_SIZE
+ * comments each. The counts scanned so far are stored with the rebuild, and
+ * the last task reconciles the page's counts with them.
+ *
+ * Tasks are named after the rebuild and chunk, and a task only runs the
+ * chunk it was enqueued for, so a retried or repeated task doesn't count a
+ * chunk twice.
+ */
+public final class CountRebuilds {
+
+    static final String KIND = "CommentCountRebuild";
+    /** Mapped to CountRebuildTaskServlet; only admins and Task Queue can call */
+    public static final String TASK_URL = "/tasks/rebuild-counts";
+    static final int SCAN_CHUNK_SIZE = 1000;
+
+    private static final CountRebuilds INSTANCE = new CountRebuilds();
+
+    private final DatastoreService datastore =
+        DatastoreServiceFactory.getDatastoreService();
+    private final DatastoreCommentRepository repository =
+        new DatastoreCommentRepository();
+
+    public static CountRebuilds getInstance() {
+        return INSTANCE;
+    }
+
+    /** Starts a rebuild of the page's counts and returns its id. */
+    public String start(String page) {
+        String id = UUID.randomUUID().toString();
+        datastore.put(newRebuild(id, page));
+        enqueue(id, 0);
+        return id;
+    }
+
+    /**
+     * Starts the first rebuild of the page, which seeds its counts, unless
+     * it was started before.
+     */
+    void startSeed(String page) {
+        String id = "seed-" + UUID.nameUUIDFromBytes(
+            page.getBytes(StandardCharsets.UTF_8));
+        Key key = KeyFactory.createKey(KIND, id);
+        Transaction transaction = datastore.beginTransaction();
+        try {
+            try {
+                datastore.get(transaction, key);
+                return;
+            } catch (EntityNotFoundException e) {
+                // Not started yet.
+            }
+            datastore.put(transaction, newRebuild(id, page));
+            transaction.commit();
+        } finally {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+        }
+        enqueue(id, 0);
+    }
+
+    /**
+     * Scans the chunk of the rebuild and stores its progress, enqueuing the
+     * next chunk, or reconciles the page's counts after the last one. Does
+     * nothing if the rebuild is over or already past the chunk.
+     *
+     * @throws RuntimeException if the storage fails; the chunk can be run
+     *     again
+     */
+    public void runChunk(String id, long chunk) {
+        Entity rebuild = get(id);
+        if (rebuild == null || !"running".equals(rebuild.getProperty("state"))
+            || (Long) rebuild.getProperty("chunks") != chunk) {
+            return;
+        }
+
+        String page = (String) rebuild.getProperty("page");
+        EmotionCounts counts = EmotionCounts.fromJson(
+            ((Text) rebuild.getProperty("counts")).getValue());
+        String cursor = repository.scanCounts(page,
+            (String) rebuild.getProperty("cursor"), SCAN_CHUNK_SIZE, counts);
+        if (cursor == null) {
+            // Reconciling again, as a retry does, changes nothing more.
+            repository.reconcileCounts(page, counts);
+        }
+
+        rebuild.setUnindexedProperty("cursor", cursor);
+        rebuild.setUnindexedProperty("counts", new Text(counts.toJson()));
+        rebuild.setUnindexedProperty("chunks", chunk + 1);
+        rebuild.setUnindexedProperty("scanned", counts.getTotal());
+        if (cursor == null) {
+            finish(rebuild, "done", null);
+        } else {
+            datastore.put(rebuild);
+            enqueue(id, chunk + 1);
+        }
+    }
+
+    /** Marks the rebuild as failed. */
+    public void fail(String id, String error) {
+        Entity rebuild = get(id);
+        if (rebuild != null) {
+            finish(rebuild, "failed", error);
+        }
+    }
+
+    /**
+     * Returns the page, state, scanned comments and times of the rebuild,
+     * or null if there is none.
+     */
+    public Map<String, Object> getStatus(String id) {
+        Entity rebuild = get(id);
+        if (rebuild == null) {
+            return null;
+        }
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("rebuild", id);
+        for (String property: new String[] {"page", "state", "scanned",
+            "startedMillis", "finishedMillis", "error"}) {
+            if (rebuild.getProperty(property) != null) {
+                status.put(property, rebuild.getProperty(property));
+            }
+        }
+        return status;
+    }
+
+    private void enqueue(String id, long chunk) {
+        try {
+            QueueFactory.getDefaultQueue().add(
+                TaskOptions.Builder.withUrl(TASK_URL)
+                    .taskName(id + "-" + chunk)
+                    .param("rebuild", id)
+                    .param("chunk", String.valueOf(chunk)));
+        } catch (TaskAlreadyExistsException e) {
+            // A retried task enqueues the same next task again.
+        }
+    }
+
+    private Entity get(String id) {
+        try {
+            return datastore.get(KeyFactory.createKey(KIND, id));
+        } catch (EntityNotFoundException e) {
+            return null;
+        }
+    }
+
+    private void finish(Entity rebuild, String state, String error) {
+        rebuild.setUnindexedProperty("state", state);
+        rebuild.setUnindexedProperty("finishedMillis",
+            System.currentTimeMillis());
+        rebuild.setUnindexedProperty("error", error);
+        datastore.put(rebuild);
+    }
+
+    private static Entity newRebuild(String id, String page) {
+        Entity rebuild = new Entity(KeyFactory.createKey(KIND, id));
+        rebuild.setUnindexedProperty("page", page);
+        rebuild.setUnindexedProperty("state", "running");
+        rebuild.setUnindexedProperty("cursor", null);
+        rebuild.setUnindexedProperty("counts",
+            new Text(new EmotionCounts().toJson()));
+        rebuild.setUnindexedProperty("chunks", 0L);
+        rebuild.setUnindexedProperty("scanned", 0L);
+        rebuild.setUnindexedProperty("startedMillis",
+            System.currentTimeMillis());
+        return rebuild;
+    }
+}
@@ -0,0 +1,731 @@
+/** Class containing the Datastore storage of comments */
+package com.google.sps.data;
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entities;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
+import com.google.appengine.api.datastore.Query.Filter;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.datastore.Text;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Stores the comments of each page as entities of the kind
+ * "Comment-" + page. The comment id is the web-safe string of the entity
+ * key, or the uuid property of comments stored before keys were used.
+ *
+ * The number of comments of each page is kept in COUNTER_SHARDS entities
+ * of the kind CommentCounter, named page + "#" + shard, with the count of
+ * each emotion in the "emotion." + bucket properties. The count of each
+ * emotion per UTC day is kept in CommentEmotionDay entities, named
+ * page + "#" + day + "#" + shard. Every write adds to one random shard
+ * number of the counter and of each day it touches, in the transaction of
+ * the write. A page's first counted write or count starts a CountRebuilds
+ * task that seeds its counts from a scan of its comments, which also
+ * covers comments stored before the counters, and a CommentCountsSeed
+ * entity marks the page as seeded. The same rebuild corrects counts that
+ * drifted.
+ *
+ * When CommentJson is enabled, each entity also keeps the comment's JSON in
+ * the unindexed json property, and new comments get their key from newId
+ * so the id is known before the put.
+ */
+public final class DatastoreCommentRepository implements CommentRepository {
+
+    static final String COUNTER_KIND = "CommentCounter";
+    /** Marks seeded pages; pages seeded before emotions were counted lack one */
+    static final String SEED_KIND = "CommentCountsSeed";
+    static final String EMOTION_DAY_KIND = "CommentEmotionDay";
+    static final String EMOTION_PREFIX = "emotion.";
+    /** Shards of each page count, so posts rarely contend on one entity */
+    static final int COUNTER_SHARDS = 16;
+    /** Entity groups a cross-group transaction may touch */
+    static final int MAX_TRANSACTION_GROUPS = 25;
+    static final int MAX_TRANSACTION_ATTEMPTS = 3;
+
+    private final DatastoreService datastore;
+    private final AsyncDatastoreService asyncDatastore;
+    /** Pages that were seeded or whose seed this instance started */
+    private final Set<String> checkedPages = ConcurrentHashMap.newKeySet();
+
+    public DatastoreCommentRepository() {
+        this(DatastoreServiceFactory.getDatastoreService(),
+            DatastoreServiceFactory.getAsyncDatastoreService());
+    }
+
+    public DatastoreCommentRepository(DatastoreService datastore,
+        AsyncDatastoreService asyncDatastore) {
+        this.datastore = datastore;
+        this.asyncDatastore = asyncDatastore;
+    }
+
+    /**
+     * Returns a key with a random name; Datastore allocates numeric ids only
+     * on put.
+     */
+    @Override
+    public String newId(String page) {
+        return KeyFactory.keyToString(KeyFactory.createKey(getKind(page),
+            UUID.randomUUID().toString()));
+    }
+
+    /**
+     * Returns whether the id is the key of a comment of the page; uuids of
+     * comments stored before keys were used are not.
+     */
+    @Override
+    public boolean isValidId(String page, String id) {
+        return id != null && getCommentKey(page, id) != null;
+    }
+
+    /**
+     * Stores the comments and adds the new ones to the page counts. When
+     * the comments and the counts fit in MAX_TRANSACTION_GROUPS, they are
+     * put in one transaction; larger batches are put first and counted
+     * after.
+     */
+    @Override
+    public List<Comment> save(String page, List<Comment> comments) {
+        List<Comment> stored = new ArrayList<>();
+        List<Entity> entities = new ArrayList<>();
+        List<Key> replacedKeys = new ArrayList<>();
+        boolean storeJson = CommentJson.isEnabled();
+        for (Comment comment: comments) {
+            boolean isNew = comment.getId() == null;
+            if (isNew && storeJson) {
+                comment = new Comment(comment.getContent(),
+                    comment.getUserName(), comment.getUserEmail(),
+                    comment.getDate(), comment.getEmotion(), false,
+                    newId(page), comment.imageUrl(),
+                    comment.getThumbnailUrl());
+            }
+            Entity entity = toEntity(page, comment, storeJson);
+            stored.add(comment);
+            entities.add(entity);
+            if (!isNew) {
+                replacedKeys.add(entity.getKey());
+            }
+        }
+
+        // Comments with an id may already be stored, as when a write-behind
+        // put is replayed, and are not counted again.
+        Set<Key> replaced = replacedKeys.isEmpty() ? Collections.emptySet()
+            : datastore.get(replacedKeys).keySet();
+        EmotionCounts added = new EmotionCounts();
+        for (int i = 0; i < entities.size(); i++) {
+            if (!replaced.contains(entities.get(i).getKey())) {
+                added.add(stored.get(i), 1);
+            }
+        }
+
+        // Keys without an id are allocated by the put itself.
+        ensureSeeded(page);
+        if (entities.size() + getCountGroups(added)
+            <= MAX_TRANSACTION_GROUPS) {
+            runInTransaction(transaction -> {
+                datastore.put(transaction, entities);
+                addToCounts(transaction, page, added, added.getTotal());
+            });
+        } else {
+            datastore.put(entities);
+            addToCounts(page, added, added.getTotal());
+        }
+
+        List<Comment> saved = new ArrayList<>();
+        for (Entity entity: entities) {
+            saved.add(toComment(entity));
+        }
+        return saved;
+    }
+
+    /**
+     * Runs the query on the async service, so the first batch is requested
+     * right away and several queries opened in a row run concurrently.
+     */
+    @Override
+    public CommentIterator query(String page, int limit, String cursor) {
+        FetchOptions fetchOptions = FetchOptions.Builder.withLimit(limit);
+        if (cursor != null && !cursor.isEmpty()) {
+            fetchOptions.startCursor(Cursor.fromWebSafeString(cursor));
+        }
+
+        Query query = new Query(getKind(page))
+            .addSort("date", SortDirection.DESCENDING);
+        final QueryResultIterator<Entity> results = asyncDatastore
+            .prepare(query).asQueryResultIterator(fetchOptions);
+
+        return new CommentIterator() {
+            @Override
+            public boolean hasNext() {
+                return results.hasNext();
+            }
+
+            @Override
+            public Comment next() {
+                return toComment(results.next());
+            }
+
+            @Override
+            public String getCursor() {
+                return results.getCursor().toWebSafeString();
+            }
+        };
+    }
+
+    @Override
+    public Comment get(String page, String id) {
+        Key key = getCommentKey(page, id);
+        if (key == null) {
+            List<Key> keys = findLegacyCommentKeys(page, id);
+            if (keys.isEmpty()) {
+                return null;
+            }
+            key = keys.get(0);
+        }
+        try {
+            return toComment(datastore.get(key));
+        } catch (EntityNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads and writes the comment in one transaction, so a comment deleted
+     * meanwhile is not put back.
+     */
+    @Override
+    public Comment update(String page, String id,
+        UnaryOperator<Comment> change) {
+        Key key = getCommentKey(page, id);
+        if (key == null) {
+            List<Key> keys = findLegacyCommentKeys(page, id);
+            if (keys.isEmpty()) {
+                return null;
+            }
+            key = keys.get(0);
+        }
+
+        final Key commentKey = key;
+        final boolean storeJson = CommentJson.isEnabled();
+        final Comment[] updated = new Comment[1];
+        runInTransaction(transaction -> {
+            Entity entity;
+            try {
+                entity = datastore.get(transaction, commentKey);
+            } catch (EntityNotFoundException e) {
+                updated[0] = null;
+                return;
+            }
+            // The entity keeps its key and legacy uuid.
+            setProperties(entity, change.apply(toComment(entity)), storeJson);
+            datastore.put(transaction, entity);
+            updated[0] = toComment(entity);
+        });
+        return updated[0];
+    }
+
+    @Override
+    public void delete(String page, String id) {
+        ensureSeeded(page);
+        Key key = getCommentKey(page, id);
+        deleteExisting(page, key == null ? findLegacyCommentKeys(page, id)
+            : Collections.singletonList(key));
+    }
+
+    /**
+     * Finds up to max keys with a keys-only query, which may still return
+     * comments deleted a moment ago; only those that still exist are taken
+     * off the count. Returns the ids the query found.
+     */
+    @Override
+    public List<String> deleteChunk(String page, int max) {
+        ensureSeeded(page);
+        Query query = new Query(getKind(page)).setKeysOnly();
+        List<Key> keys = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+        for (Entity entity: datastore.prepare(query)
+            .asIterable(FetchOptions.Builder.withLimit(max))) {
+            keys.add(entity.getKey());
+            ids.add(KeyFactory.keyToString(entity.getKey()));
+        }
+
+        deleteExisting(page, keys);
+        return ids;
+    }
+
+    /**
+     * Deletes the comments that still exist and takes them off the counts,
+     * each in a transaction with its counts, so a comment deleted meanwhile
+     * is not taken off twice. The comments are read first to group them so
+     * that the comments, their days and the counter shard of a transaction
+     * fit in MAX_TRANSACTION_GROUPS; a comment's date never changes.
+     */
+    private void deleteExisting(String page, List<Key> keys) {
+        Map<Key, Entity> found = datastore.get(keys);
+        List<Key> group = new ArrayList<>();
+        Set<LocalDate> groupDays = new HashSet<>();
+        for (Key key: keys) {
+            Entity entity = found.get(key);
+            if (entity == null) {
+                continue;
+            }
+            LocalDate day = EmotionCounts.getDay(
+                (Date) entity.getProperty("date"));
+            int days = groupDays.size()
+                + (day == null || groupDays.contains(day) ? 0 : 1);
+            // The comments, their days and the counter shard
+            if (group.size() + 1 + days + 1 > MAX_TRANSACTION_GROUPS) {
+                deleteGroup(page, group);
+                group = new ArrayList<>();
+                groupDays.clear();
+            }
+            group.add(key);
+            if (day != null) {
+                groupDays.add(day);
+            }
+        }
+        if (!group.isEmpty()) {
+            deleteGroup(page, group);
+        }
+    }
+
+    private void deleteGroup(String page, List<Key> group) {
+        runInTransaction(transaction -> {
+            Map<Key, Entity> existing = datastore.get(transaction, group);
+            if (existing.isEmpty()) {
+                return;
+            }
+            EmotionCounts removed = new EmotionCounts();
+            for (Entity entity: existing.values()) {
+                removed.add((String) entity.getProperty("emotion"),
+                    (Date) entity.getProperty("date"), -1);
+            }
+            datastore.delete(transaction, existing.keySet());
+            addToCounts(transaction, page, removed, -existing.size());
+        });
+    }
+
+    /**
+     * Sums the counter shards of the page, seeding them first if needed.
+     */
+    @Override
+    public long count(String page) {
+        ensureSeeded(page);
+        return Math.max(0, sumCounts(page));
+    }
+
+    private long sumCounts(String page) {
+        long count = 0;
+        for (Entity shard: datastore.get(getCounterKeys(page)).values()) {
+            Long shardCount = (Long) shard.getProperty("count");
+            count += shardCount == null ? 0 : shardCount;
+        }
+        return count;
+    }
+
+    /**
+     * Sums the emotion counts of the counter shards and of the day shards
+     * since from, seeding them first if needed. The days are found with a
+     * key range query, which may miss the latest writes for a moment.
+     */
+    @Override
+    public EmotionCounts getEmotionCounts(String page, LocalDate from) {
+        ensureSeeded(page);
+        return readCounts(page, from);
+    }
+
+    /**
+     * Scans up to max comments of the page, oldest first, starting at the
+     * cursor, or at the oldest comment if cursor is null, and adds them to
+     * counts. Returns the cursor of the next comment, or null if the scan
+     * reached the newest one.
+     */
+    String scanCounts(String page, String cursor, int max,
+        EmotionCounts counts) {
+        FetchOptions fetchOptions = FetchOptions.Builder.withLimit(max);
+        if (cursor != null) {
+            fetchOptions.startCursor(Cursor.fromWebSafeString(cursor));
+        }
+        Query query = new Query(getKind(page))
+            .addSort("date", SortDirection.ASCENDING);
+        QueryResultList<Entity> results =
+            datastore.prepare(query).asQueryResultList(fetchOptions);
+        for (Entity entity: results) {
+            counts.add((String) entity.getProperty("emotion"),
+                (Date) entity.getProperty("date"), 1);
+        }
+        return results.size() < max ? null
+            : results.getCursor().toWebSafeString();
+    }
+
+    /**
+     * Changes the counts of the page by what they miss of the scanned
+     * counts, as one more counted write, and marks the page as seeded.
+     * Writes counted since the scan passed them are part of both, so they
+     * are kept once; writes to comments the scan had already passed, made
+     * while it ran, may leave the counts off until the next rebuild.
+     */
+    void reconcileCounts(String page, EmotionCounts scanned) {
+        EmotionCounts delta = new EmotionCounts();
+        delta.addAll(scanned, 1);
+        delta.addAll(readCounts(page, null), -1);
+        long countDelta = scanned.getTotal() - sumCounts(page);
+        if (!delta.isEmpty() || countDelta != 0) {
+            addToCounts(page, delta, countDelta);
+        }
+
+        Entity seed = new Entity(KeyFactory.createKey(SEED_KIND, page));
+        seed.setProperty("count", scanned.getTotal());
+        seed.setProperty("date", new Date());
+        datastore.put(seed);
+        checkedPages.add(page);
+    }
+
+    /**
+     * Sums the emotion counts of the page, with the days since from, or
+     * every day if from is null.
+     */
+    private EmotionCounts readCounts(String page, LocalDate from) {
+        EmotionCounts counts = new EmotionCounts();
+        for (Entity shard: datastore.get(getCounterKeys(page)).values()) {
+            addEmotions(shard, (bucket, count) ->
+                counts.addTotal(bucket, count));
+        }
+
+        Filter days = CompositeFilterOperator.and(
+            new FilterPredicate(Entity.KEY_RESERVED_PROPERTY,
+                FilterOperator.GREATER_THAN_OR_EQUAL,
+                KeyFactory.createKey(EMOTION_DAY_KIND,
+                    page + "#" + (from == null ? "" : from.toString()))),
+            // '$' follows '#', so the range ends after the page's days.
+            new FilterPredicate(Entity.KEY_RESERVED_PROPERTY,
+                FilterOperator.LESS_THAN,
+                KeyFactory.createKey(EMOTION_DAY_KIND, page + "$")));
+        Query query = new Query(EMOTION_DAY_KIND).setFilter(days);
+        for (Entity shard: datastore.prepare(query).asIterable(
+            FetchOptions.Builder.withChunkSize(500))) {
+            // A page whose name continues with '#' shares the range.
+            if (!page.equals(shard.getProperty("page"))) {
+                continue;
+            }
+            LocalDate day = LocalDate.parse((String) shard.getProperty("day"));
+            addEmotions(shard, (bucket, count) ->
+                counts.addDay(day, bucket, count));
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the pages that have a comment kind, from the kind metadata.
+     */
+    @Override
+    public List<String> getPages() {
+        Query query = new Query(Entities.KIND_METADATA_KIND).setKeysOnly();
+
+        List<String> pages = new ArrayList<>();
+        for (Entity entity: datastore.prepare(query).asIterable()) {
+            String kind = entity.getKey().getName();
+            if (kind != null && kind.startsWith("Comment-")) {
+                pages.add(kind.substring("Comment-".length()));
+            }
+        }
+        return pages;
+    }
+
+    /**
+     * Adds the counts, which fit in one transaction, and count to a random
+     * shard number of the page's counter and of each of their days, within
+     * the transaction.
+     */
+    private void addToCounts(Transaction transaction, String page,
+        EmotionCounts counts, long count) {
+        if (counts.isEmpty() && count == 0) {
+            return;
+        }
+        int shardNumber = ThreadLocalRandom.current().nextInt(COUNTER_SHARDS);
+        List<Entity> shards = new ArrayList<>();
+        if (!counts.getTotals().isEmpty() || count != 0) {
+            Entity shard = getShard(transaction,
+                getCounterKey(page, shardNumber), page);
+            for (Map.Entry<String, Long> total: counts.getTotals().entrySet()) {
+                addToProperty(shard, EMOTION_PREFIX + total.getKey(),
+                    total.getValue());
+            }
+            addToProperty(shard, "count", count);
+            shards.add(shard);
+        }
+        for (Map.Entry<LocalDate, Map<String, Long>> day:
+            counts.getDays().entrySet()) {
+            Entity shard = getShard(transaction,
+                getEmotionDayKey(page, day.getKey(), shardNumber), page);
+            shard.setProperty("day", day.getKey().toString());
+            for (Map.Entry<String, Long> emotion: day.getValue().entrySet()) {
+                addToProperty(shard, EMOTION_PREFIX + emotion.getKey(),
+                    emotion.getValue());
+            }
+            shards.add(shard);
+        }
+        datastore.put(transaction, shards);
+    }
+
+    /**
+     * Adds the counts and count in transactions of their own, the totals
+     * with the first MAX_TRANSACTION_GROUPS - 1 days and the remaining days
+     * as many at a time.
+     */
+    private void addToCounts(String page, EmotionCounts counts, long count) {
+        List<EmotionCounts> parts = new ArrayList<>();
+        EmotionCounts part = new EmotionCounts();
+        for (Map.Entry<String, Long> total: counts.getTotals().entrySet()) {
+            part.addTotal(total.getKey(), total.getValue());
+        }
+        for (Map.Entry<LocalDate, Map<String, Long>> day:
+            counts.getDays().entrySet()) {
+            if (part.getDays().size() == MAX_TRANSACTION_GROUPS - 1) {
+                parts.add(part);
+                part = new EmotionCounts();
+            }
+            for (Map.Entry<String, Long> emotion: day.getValue().entrySet()) {
+                part.addDay(day.getKey(), emotion.getKey(), emotion.getValue());
+            }
+        }
+        parts.add(part);
+        for (int i = 0; i < parts.size(); i++) {
+            EmotionCounts counted = parts.get(i);
+            long partCount = i == 0 ? count : 0;
+            runInTransaction(transaction ->
+                addToCounts(transaction, page, counted, partCount));
+        }
+    }
+
+    /** Returns the entity groups that adding the counts touches. */
+    private static int getCountGroups(EmotionCounts counts) {
+        return counts.isEmpty() ? 0 : 1 + counts.getDays().size();
+    }
+
+    private Entity getShard(Transaction transaction, Key key, String page) {
+        try {
+            return datastore.get(transaction, key);
+        } catch (EntityNotFoundException e) {
+            Entity shard = new Entity(key);
+            shard.setProperty("page", page);
+            return shard;
+        }
+    }
+
+    private static void addToProperty(Entity entity, String name, long delta) {
+        Long value = (Long) entity.getProperty(name);
+        entity.setProperty(name, (value == null ? 0L : value) + delta);
+    }
+
+    private static void addEmotions(Entity shard,
+        ObjLongConsumer<String> consumer) {
+        for (Map.Entry<String, Object> property:
+            shard.getProperties().entrySet()) {
+            if (property.getKey().startsWith(EMOTION_PREFIX)) {
+                consumer.accept(property.getKey().substring(
+                    EMOTION_PREFIX.length()), (Long) property.getValue());
+            }
+        }
+    }
+
+    /**
+     * Starts the seed of the page's counts on Task Queue, unless the page
+     * was seeded or this instance started its seed before. Writes are
+     * counted meanwhile, and the seed adds what they miss.
+     */
+    private void ensureSeeded(String page) {
+        if (checkedPages.contains(page)) {
+            return;
+        }
+        try {
+            datastore.get(KeyFactory.createKey(SEED_KIND, page));
+            checkedPages.add(page);
+            return;
+        } catch (EntityNotFoundException e) {
+            // Not seeded yet.
+        }
+        if (checkedPages.add(page)) {
+            try {
+                CountRebuilds.getInstance().startSeed(page);
+            } catch (RuntimeException e) {
+                System.err.println("Could not start the count seed of "
+                    + page + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Runs work in a cross-group transaction, retrying it when the
+     * transaction collides with another one.
+     */
+    private void runInTransaction(Consumer<Transaction> work) {
+        for (int attempt = 1; ; attempt++) {
+            Transaction transaction = datastore.beginTransaction(
+                TransactionOptions.Builder.withXG(true));
+            try {
+                work.accept(transaction);
+                transaction.commit();
+                return;
+            } catch (ConcurrentModificationException e) {
+                if (attempt == MAX_TRANSACTION_ATTEMPTS) {
+                    throw e;
+                }
+            } finally {
+                if (transaction.isActive()) {
+                    transaction.rollback();
+                }
+            }
+        }
+    }
+
+    private static List<Key> getCounterKeys(String page) {
+        List<Key> keys = new ArrayList<>();
+        for (int shard = 0; shard < COUNTER_SHARDS; shard++) {
+            keys.add(getCounterKey(page, shard));
+        }
+        return keys;
+    }
+
+    private static Key getCounterKey(String page, int shard) {
+        return KeyFactory.createKey(COUNTER_KIND, page + "#" + shard);
+    }
+
+    private static Key getEmotionDayKey(String page, LocalDate day,
+        int shard) {
+        return KeyFactory.createKey(EMOTION_DAY_KIND,
+            page + "#" + day + "#" + shard);
+    }
+
+    static String getKind(String page) {
+        return "Comment-" + page;
+    }
+
+    /**
+     * Creates the entity of the comment, with its JSON if storeJson is set.
+     * Its key is allocated on put unless the comment already has an id.
+     */
+    static Entity toEntity(String page, Comment comment, boolean storeJson) {
+        Entity commentEntity;
+        if (comment.getId() == null) {
+            commentEntity = new Entity(getKind(page));
+        } else {
+            commentEntity = new Entity(KeyFactory.stringToKey(comment.getId()));
+        }
+        setProperties(commentEntity, comment, storeJson);
+        return commentEntity;
+    }
+
+    /**
+     * Sets the properties of the comment on its entity, with its JSON if
+     * storeJson is set.
+     */
+    private static void setProperties(Entity commentEntity, Comment comment,
+        boolean storeJson) {
+        commentEntity.setProperty("userEmail", comment.getUserEmail());
+        commentEntity.setProperty("userName", comment.getUserName());
+        commentEntity.setProperty("text", comment.getContent());
+        commentEntity.setProperty("date", comment.getDate());
+        commentEntity.setProperty("emotion", comment.getEmotion());
+        commentEntity.setProperty("imageUrl", comment.imageUrl());
+        commentEntity.setProperty("thumbnailUrl", comment.getThumbnailUrl());
+        // The JSON includes the id, so only a comment with one gets it.
+        if (storeJson && comment.getId() != null) {
+            commentEntity.setUnindexedProperty("json",
+                new Text(CommentJson.serialize(comment)));
+        } else {
+            // An updated entity must not keep the JSON of its old version.
+            commentEntity.removeProperty("json");
+        }
+    }
+
+    /**
+     * Reads a stored comment entity.
+     *
+     * @throws ClassCastException if a property has an unexpected type
+     */
+    static Comment toComment(Entity entity) {
+        String userName = (String) entity.getProperty("userName");
+        String userEmail = (String) entity.getProperty("userEmail");
+        String text = (String) entity.getProperty("text");
+        Date date = (Date) entity.getProperty("date");
+        String emotion = (String) entity.getProperty("emotion");
+        String imageUrl = (String) entity.getProperty("imageUrl");
+        String thumbnailUrl = (String) entity.getProperty("thumbnailUrl");
+        Text json = (Text) entity.getProperty("json");
+        Comment comment = new Comment(text, userName, userEmail, date,
+            emotion, false, getCommentId(entity), imageUrl, thumbnailUrl);
+        return json == null ? comment : comment.withJson(json.getValue());
+    }
+
+    static String getCommentId(Entity entity) {
+        String uuid = (String) entity.getProperty("uuid");
+        if (uuid != null) {
+            return uuid;
+        }
+        return KeyFactory.keyToString(entity.getKey());
+    }
+
+    /**
+     * Decodes the comment id into its key, or returns null if the id is a
+     * uuid of a comment stored before keys were used.
+     */
+    private static Key getCommentKey(String page, String id) {
+        Key key;
+        try {
+            key = KeyFactory.stringToKey(id);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        // Never let a crafted key reach outside of the page's comments.
+        if (!key.getKind().equals(getKind(page))) {
+            return null;
+        }
+        return key;
+    }
+
+    /**
+     * Finds the keys of comments that are identified by a uuid property.
+     */
+    private List<Key> findLegacyCommentKeys(String page, String id) {
+        Filter uuidPropertyFilter = new FilterPredicate("uuid",
+            FilterOperator.EQUAL, id);
+        Query query = new Query(getKind(page))
+            .setFilter(uuidPropertyFilter)
+            .setKeysOnly();
+
+        List<Key> keys = new ArrayList<>();
+        for (Entity entity: datastore.prepare(query).asIterable()) {
+            keys.add(entity.getKey());
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,152 @@
+/** Class containing the emotion counts of a page */
+package com.google.sps.data;
+import com.google.gson.Gson;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Number of comments of each emotion of a page, in total and per UTC day,
+ * or a change to them. Emotions outside CommentSubmission.EMOTIONS are
+ * counted as "other", and a missing emotion as "none". A comment without a
+ * date is only counted in the totals. Not thread-safe.
+ */
+public final class EmotionCounts {
+
+    private static final Gson GSON = new Gson();
+
+    private final Map<String, Long> totals = new TreeMap<>();
+    private final NavigableMap<LocalDate, Map<String, Long>> days =
+        new TreeMap<>();
+
+    /** Counts the comment delta times. */
+    public void add(Comment comment, long delta) {
+        add(comment.getEmotion(), comment.getDate(), delta);
+    }
+
+    /** Counts a comment with that emotion and date delta times. */
+    public void add(String emotion, Date date, long delta) {
+        String bucket = getBucket(emotion);
+        addTotal(bucket, delta);
+        LocalDate day = getDay(date);
+        if (day != null) {
+            addDay(day, bucket, delta);
+        }
+    }
+
+    /** Adds the counts of other, sign times. */
+    void addAll(EmotionCounts other, long sign) {
+        for (Map.Entry<String, Long> total: other.totals.entrySet()) {
+            addTotal(total.getKey(), sign * total.getValue());
+        }
+        for (Map.Entry<LocalDate, Map<String, Long>> day:
+            other.days.entrySet()) {
+            for (Map.Entry<String, Long> count: day.getValue().entrySet()) {
+                addDay(day.getKey(), count.getKey(), sign * count.getValue());
+            }
+        }
+    }
+
+    void addTotal(String bucket, long delta) {
+        merge(totals, bucket, delta);
+    }
+
+    void addDay(LocalDate day, String bucket, long delta) {
+        Map<String, Long> counts =
+            days.computeIfAbsent(day, key -> new TreeMap<>());
+        merge(counts, bucket, delta);
+        if (counts.isEmpty()) {
+            days.remove(day);
+        }
+    }
+
+    /** Returns the count of each emotion. */
+    public Map<String, Long> getTotals() {
+        return Collections.unmodifiableMap(totals);
+    }
+
+    /**
+     * Returns the count of each emotion for every day with comments, oldest
+     * first.
+     */
+    public NavigableMap<LocalDate, Map<String, Long>> getDays() {
+        return Collections.unmodifiableNavigableMap(days);
+    }
+
+    /** Returns the number of comments counted in the totals. */
+    public long getTotal() {
+        long total = 0;
+        for (long count: totals.values()) {
+            total += count;
+        }
+        return total;
+    }
+
+    public boolean isEmpty() {
+        return totals.isEmpty() && days.isEmpty();
+    }
+
+    /**
+     * Returns the counts as {"totals": {...}, "days": {"2020-06-01": {...}}}.
+     */
+    String toJson() {
+        Stored stored = new Stored();
+        stored.totals.putAll(totals);
+        for (Map.Entry<LocalDate, Map<String, Long>> day: days.entrySet()) {
+            stored.days.put(day.getKey().toString(), day.getValue());
+        }
+        return GSON.toJson(stored);
+    }
+
+    /** Reads counts written by toJson. */
+    static EmotionCounts fromJson(String json) {
+        Stored stored = GSON.fromJson(json, Stored.class);
+        EmotionCounts counts = new EmotionCounts();
+        for (Map.Entry<String, Long> total: stored.totals.entrySet()) {
+            counts.addTotal(total.getKey(), total.getValue());
+        }
+        for (Map.Entry<String, Map<String, Long>> day:
+            stored.days.entrySet()) {
+            for (Map.Entry<String, Long> count: day.getValue().entrySet()) {
+                counts.addDay(LocalDate.parse(day.getKey()), count.getKey(),
+                    count.getValue());
+            }
+        }
+        return counts;
+    }
+
+    static String getBucket(String emotion) {
+        if (emotion == null || emotion.isEmpty()) {
+            return "none";
+        }
+        return CommentSubmission.EMOTIONS.contains(emotion) ? emotion
+            : "other";
+    }
+
+    /** Returns the UTC day of the date, or null if there is no date. */
+    static LocalDate getDay(Date date) {
+        return date == null ? null
+            : date.toInstant().atZone(ZoneOffset.UTC).toLocalDate();
+    }
+
+    private static void merge(Map<String, Long> counts, String bucket,
+        long delta) {
+        long count = counts.getOrDefault(bucket, 0L) + delta;
+        if (count == 0) {
+            counts.remove(bucket);
+        } else {
+            counts.put(bucket, count);
+        }
+    }
+
+    /** The JSON form of the counts */
+    private static final class Stored {
+
+        private Map<String, Long> totals = new TreeMap<>();
+        private Map<String, Map<String, Long>> days = new TreeMap<>();
+    }
+}
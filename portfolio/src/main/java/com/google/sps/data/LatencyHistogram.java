@@ -0,0 +1,62 @@
+/** Class containing a histogram of durations */
+package com.google.sps.data;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts durations into fixed buckets, from a millisecond to ten seconds.
+ * Recording is lock-free, so it is cheap enough for every request.
+ */
+public final class LatencyHistogram {
+
+    /** Upper bounds of the buckets, in seconds */
+    static final double[] BOUNDS = {
+        0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+    };
+
+    /** Count of each bucket, plus one for durations above every bound */
+    private final LongAdder[] counts = new LongAdder[BOUNDS.length + 1];
+    private final DoubleAdder sumSeconds = new DoubleAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        double seconds = nanos / 1e9;
+        int bucket = 0;
+        while (bucket < BOUNDS.length && seconds > BOUNDS[bucket]) {
+            bucket++;
+        }
+        counts[bucket].increment();
+        sumSeconds.add(seconds);
+    }
+
+    /** Records the time since startNanos, a System.nanoTime() value. */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Writes the histogram as Prometheus text samples of name, with labels
+     * prepended to the bucket label.
+     */
+    void write(StringBuilder out, String name, String labels) {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        long cumulative = 0;
+        for (int i = 0; i < counts.length; i++) {
+            cumulative += counts[i].sum();
+            String bound = i < BOUNDS.length ? Double.toString(BOUNDS[i])
+                : "+Inf";
+            out.append(name).append("_bucket{").append(prefix)
+                .append("le=\"").append(bound).append("\"} ")
+                .append(cumulative).append('\n');
+        }
+        out.append(name).append("_sum{").append(labels).append("} ")
+            .append(sumSeconds.sum()).append('\n');
+        out.append(name).append("_count{").append(labels).append("} ")
+            .append(cumulative).append('\n');
+    }
+}
@@ -0,0 +1,418 @@
+/** Class containing the embedded file-backed storage of comments */
+package com.google.sps.data;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSerializer;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+
+/**
+ * Embedded comment store that runs without the App Engine runtime.
+ *
+ * Every write is appended to a log file of newline-delimited JSON records
+ * and forced to disk, and the log is replayed into an in-memory index on
+ * startup. The index keeps each page sorted newest first, so queries never
+ * touch the file. The log is rewritten without deleted comments when most
+ * of it is garbage.
+ */
+public final class LocalCommentRepository implements CommentRepository {
+
+    private static final Gson GSON = new GsonBuilder()
+        .registerTypeAdapter(Date.class, (JsonSerializer<Date>)
+            (date, type, context) -> new JsonPrimitive(date.getTime()))
+        .registerTypeAdapter(Date.class, (JsonDeserializer<Date>)
+            (json, type, context) -> new Date(json.getAsLong()))
+        .create();
+
+    private final File file;
+    /** Comments of each page, newest first */
+    private final ConcurrentMap<String, ConcurrentSkipListMap<SortKey, Comment>>
+        pages = new ConcurrentHashMap<>();
+    /** Number of comments of each page; a skip list counts in linear time */
+    private final ConcurrentMap<String, AtomicLong> counts =
+        new ConcurrentHashMap<>();
+    /** Sort key of each comment id, by page */
+    private final ConcurrentMap<String, ConcurrentMap<String, SortKey>> ids =
+        new ConcurrentHashMap<>();
+    /** Log writer and record counts; guarded by this */
+    private FileOutputStream out;
+    private Writer writer;
+    private long records;
+    private long liveComments;
+
+    public LocalCommentRepository(File file) throws IOException {
+        this.file = file;
+        replay();
+        if (records > 2 * liveComments + 1000) {
+            compact();
+        }
+        open();
+    }
+
+    @Override
+    public String newId(String page) {
+        return UUID.randomUUID().toString();
+    }
+
+    @Override
+    public boolean isValidId(String page, String id) {
+        return id != null && !id.isEmpty();
+    }
+
+    @Override
+    public synchronized List<Comment> save(String page,
+        List<Comment> comments) {
+        List<Comment> saved = new ArrayList<>();
+        for (Comment comment: comments) {
+            String id = comment.getId() == null ? newId(page) : comment.getId();
+            saved.add(new Comment(comment.getContent(), comment.getUserName(),
+                comment.getUserEmail(), comment.getDate(), comment.getEmotion(),
+                false, id, comment.imageUrl(), comment.getThumbnailUrl()));
+        }
+
+        for (Comment comment: saved) {
+            append(new Record("put", page, comment.getId(), comment));
+        }
+        sync();
+        for (Comment comment: saved) {
+            index(page, comment);
+        }
+        return saved;
+    }
+
+    @Override
+    public CommentIterator query(String page, int limit, String cursor) {
+        NavigableMap<SortKey, Comment> comments = pages.get(page);
+        if (comments == null) {
+            comments = Collections.emptyNavigableMap();
+        }
+        if (cursor != null && !cursor.isEmpty()) {
+            comments = comments.tailMap(SortKey.fromCursor(cursor), false);
+        }
+
+        final Iterator<Map.Entry<SortKey, Comment>> entries =
+            comments.entrySet().iterator();
+        return new CommentIterator() {
+            private int returned;
+            private SortKey last;
+
+            @Override
+            public boolean hasNext() {
+                return returned < limit && entries.hasNext();
+            }
+
+            @Override
+            public Comment next() {
+                Map.Entry<SortKey, Comment> entry = entries.next();
+                returned++;
+                last = entry.getKey();
+                return entry.getValue();
+            }
+
+            @Override
+            public String getCursor() {
+                return last == null ? cursor : last.toCursor();
+            }
+        };
+    }
+
+    @Override
+    public Comment get(String page, String id) {
+        ConcurrentMap<String, SortKey> pageIds = ids.get(page);
+        SortKey key = pageIds == null ? null : pageIds.get(id);
+        if (key == null) {
+            return null;
+        }
+        return pages.get(page).get(key);
+    }
+
+    @Override
+    public synchronized Comment update(String page, String id,
+        UnaryOperator<Comment> change) {
+        Comment comment = get(page, id);
+        if (comment == null) {
+            return null;
+        }
+        return save(page, Collections.singletonList(change.apply(comment)))
+            .get(0);
+    }
+
+    @Override
+    public synchronized void delete(String page, String id) {
+        ConcurrentMap<String, SortKey> pageIds = ids.get(page);
+        if (pageIds == null || !pageIds.containsKey(id)) {
+            return;
+        }
+        append(new Record("delete", page, id, null));
+        sync();
+        unindex(page, id);
+    }
+
+    @Override
+    public synchronized List<String> deleteChunk(String page, int max) {
+        List<String> deleted = new ArrayList<>();
+        NavigableMap<SortKey, Comment> comments = pages.get(page);
+        if (comments == null) {
+            return deleted;
+        }
+        for (SortKey key: comments.keySet()) {
+            if (deleted.size() == max) {
+                break;
+            }
+            deleted.add(key.id);
+        }
+
+        for (String id: deleted) {
+            append(new Record("delete", page, id, null));
+        }
+        sync();
+        for (String id: deleted) {
+            unindex(page, id);
+        }
+        return deleted;
+    }
+
+    @Override
+    public long count(String page) {
+        AtomicLong count = counts.get(page);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * Counts the comments of the page in memory; every comment is read, but
+     * none leaves the index.
+     */
+    @Override
+    public EmotionCounts getEmotionCounts(String page, LocalDate from) {
+        EmotionCounts counts = new EmotionCounts();
+        NavigableMap<SortKey, Comment> comments = pages.get(page);
+        if (comments == null) {
+            return counts;
+        }
+        for (Comment comment: comments.values()) {
+            String bucket = EmotionCounts.getBucket(comment.getEmotion());
+            counts.addTotal(bucket, 1);
+            LocalDate day = EmotionCounts.getDay(comment.getDate());
+            if (!day.isBefore(from)) {
+                counts.addDay(day, bucket, 1);
+            }
+        }
+        return counts;
+    }
+
+    @Override
+    public List<String> getPages() {
+        List<String> result = new ArrayList<>();
+        for (Map.Entry<String, ConcurrentSkipListMap<SortKey, Comment>> entry:
+            pages.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                result.add(entry.getKey());
+            }
+        }
+        return result;
+    }
+
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+            out = null;
+        }
+    }
+
+    private void index(String page, Comment comment) {
+        unindex(page, comment.getId());
+        SortKey key = new SortKey(comment.getDate().getTime(), comment.getId());
+        pages.computeIfAbsent(page, name -> new ConcurrentSkipListMap<>())
+            .put(key, comment);
+        ids.computeIfAbsent(page, name -> new ConcurrentHashMap<>())
+            .put(comment.getId(), key);
+        counts.computeIfAbsent(page, name -> new AtomicLong())
+            .incrementAndGet();
+        liveComments++;
+    }
+
+    private void unindex(String page, String id) {
+        ConcurrentMap<String, SortKey> pageIds = ids.get(page);
+        SortKey key = pageIds == null ? null : pageIds.remove(id);
+        if (key != null) {
+            pages.get(page).remove(key);
+            counts.get(page).decrementAndGet();
+            liveComments--;
+        }
+    }
+
+    /**
+     * Rebuilds the index from the log. A torn last record, left by a crash
+     * in the middle of an append, is skipped.
+     */
+    private void replay() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+            Files.newInputStream(file.toPath()), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Record record;
+                try {
+                    record = GSON.fromJson(line, Record.class);
+                } catch (JsonParseException e) {
+                    System.err.println("Skipping unreadable comment record");
+                    continue;
+                }
+                if (record == null) {
+                    continue;
+                }
+                records++;
+                if ("put".equals(record.op) && record.comment != null) {
+                    index(record.page, record.comment);
+                } else if ("delete".equals(record.op)) {
+                    unindex(record.page, record.id);
+                }
+            }
+        }
+    }
+
+    /**
+     * Rewrites the log with one record per live comment.
+     */
+    private void compact() throws IOException {
+        File compacted = new File(file.getPath() + ".compact");
+        try (Writer compactedWriter = new OutputStreamWriter(
+            new FileOutputStream(compacted), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, ConcurrentSkipListMap<SortKey, Comment>>
+                page: pages.entrySet()) {
+                for (Comment comment: page.getValue().values()) {
+                    compactedWriter.write(GSON.toJson(new Record("put",
+                        page.getKey(), comment.getId(), comment)));
+                    compactedWriter.write('\n');
+                }
+            }
+        }
+        Files.move(compacted.toPath(), file.toPath(),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        records = liveComments;
+    }
+
+    private void open() throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        out = new FileOutputStream(file, true);
+        writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+    }
+
+    private void append(Record record) {
+        try {
+            writer.write(GSON.toJson(record));
+            writer.write('\n');
+            records++;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not append to " + file, e);
+        }
+    }
+
+    private void sync() {
+        try {
+            writer.flush();
+            out.getFD().sync();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not sync " + file, e);
+        }
+    }
+
+    /** One line of the log */
+    private static final class Record {
+
+        private final String op;
+        private final String page;
+        private final String id;
+        private final Comment comment;
+
+        Record(String op, String page, String id, Comment comment) {
+            this.op = op;
+            this.page = page;
+            this.id = id;
+            this.comment = comment;
+        }
+    }
+
+    /** Position of a comment within its page: newest first, then by id */
+    private static final class SortKey implements Comparable<SortKey> {
+
+        private final long date;
+        private final String id;
+
+        SortKey(long date, String id) {
+            this.date = date;
+            this.id = id;
+        }
+
+        String toCursor() {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(
+                (date + ":" + id).getBytes(StandardCharsets.UTF_8));
+        }
+
+        static SortKey fromCursor(String cursor) {
+            String decoded = new String(Base64.getUrlDecoder().decode(cursor),
+                StandardCharsets.UTF_8);
+            int separator = decoded.indexOf(':');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Malformed cursor");
+            }
+            try {
+                return new SortKey(Long.parseLong(
+                    decoded.substring(0, separator)),
+                    decoded.substring(separator + 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Malformed cursor", e);
+            }
+        }
+
+        @Override
+        public int compareTo(SortKey other) {
+            int byDate = Long.compare(other.date, date);
+            return byDate != 0 ? byDate : id.compareTo(other.id);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof SortKey
+                && compareTo((SortKey) other) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(date) * 31 + id.hashCode();
+        }
+    }
+}
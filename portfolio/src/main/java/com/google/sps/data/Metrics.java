@@ -0,0 +1,167 @@
+/** Class containing the request and storage metrics of the application */
+package com.google.sps.data;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request counts, errors, in-flight requests and latencies by servlet path
+ * and method, and latencies and errors of comment storage operations.
+ * Exported in the Prometheus text format.
+ */
+public final class Metrics {
+
+    private static final Metrics INSTANCE = new Metrics();
+
+    private final ConcurrentMap<String, RequestMetrics> requests =
+        new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, StorageMetrics> storage =
+        new ConcurrentHashMap<>();
+
+    Metrics() {
+    }
+
+    public static Metrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the metrics of requests to the servlet path with the method.
+     */
+    public RequestMetrics getRequestMetrics(String path, String method) {
+        String labels = "path=\"" + escape(path) + "\",method=\""
+            + escape(method) + "\"";
+        return requests.computeIfAbsent(labels,
+            key -> new RequestMetrics());
+    }
+
+    /**
+     * Returns the metrics of a comment storage operation.
+     */
+    public StorageMetrics getStorageMetrics(String operation) {
+        return storage.computeIfAbsent("operation=\"" + escape(operation)
+            + "\"", key -> new StorageMetrics());
+    }
+
+    /**
+     * Returns every metric in the Prometheus text exposition format,
+     * series sorted by label.
+     */
+    public String export() {
+        Map<String, RequestMetrics> sortedRequests = new TreeMap<>(requests);
+        Map<String, StorageMetrics> sortedStorage = new TreeMap<>(storage);
+        StringBuilder out = new StringBuilder();
+
+        header(out, "http_requests_total", "counter",
+            "Requests handled, by servlet path and method.");
+        for (Map.Entry<String, RequestMetrics> entry:
+            sortedRequests.entrySet()) {
+            sample(out, "http_requests_total", entry.getKey(),
+                entry.getValue().count.sum());
+        }
+        header(out, "http_request_errors_total", "counter",
+            "Requests that failed with an exception or a 5xx status.");
+        for (Map.Entry<String, RequestMetrics> entry:
+            sortedRequests.entrySet()) {
+            sample(out, "http_request_errors_total", entry.getKey(),
+                entry.getValue().errors.sum());
+        }
+        header(out, "http_requests_in_flight", "gauge",
+            "Requests being handled.");
+        for (Map.Entry<String, RequestMetrics> entry:
+            sortedRequests.entrySet()) {
+            sample(out, "http_requests_in_flight", entry.getKey(),
+                entry.getValue().inFlight.get());
+        }
+        header(out, "http_request_duration_seconds", "histogram",
+            "Time from the start of a request to its response.");
+        for (Map.Entry<String, RequestMetrics> entry:
+            sortedRequests.entrySet()) {
+            entry.getValue().latency.write(out,
+                "http_request_duration_seconds", entry.getKey());
+        }
+
+        header(out, "comment_storage_errors_total", "counter",
+            "Comment storage operations that threw.");
+        for (Map.Entry<String, StorageMetrics> entry:
+            sortedStorage.entrySet()) {
+            sample(out, "comment_storage_errors_total", entry.getKey(),
+                entry.getValue().errors.sum());
+        }
+        header(out, "comment_storage_duration_seconds", "histogram",
+            "Time spent in comment storage operations.");
+        for (Map.Entry<String, StorageMetrics> entry:
+            sortedStorage.entrySet()) {
+            entry.getValue().latency.write(out,
+                "comment_storage_duration_seconds", entry.getKey());
+        }
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String name, String type,
+        String help) {
+        out.append("# HELP ").append(name).append(' ').append(help)
+            .append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type)
+            .append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels,
+        long value) {
+        out.append(name).append('{').append(labels).append("} ")
+            .append(value).append('\n');
+    }
+
+    private static String escape(String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.replace("\\", "\\\\").replace("\"", "\\\"")
+            .replace("\n", "\\n");
+    }
+
+    /** Metrics of the requests to one servlet path with one method */
+    public static final class RequestMetrics {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final AtomicLong inFlight = new AtomicLong();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        /** Returns the start time to pass to finished. */
+        public long started() {
+            inFlight.incrementAndGet();
+            return System.nanoTime();
+        }
+
+        public void finished(long startNanos, boolean failed) {
+            latency.recordSince(startNanos);
+            count.increment();
+            if (failed) {
+                errors.increment();
+            }
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /** Metrics of one comment storage operation */
+    public static final class StorageMetrics {
+
+        private final LongAdder errors = new LongAdder();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        public void record(long startNanos, boolean failed) {
+            recordDuration(System.nanoTime() - startNanos, failed);
+        }
+
+        public void recordDuration(long nanos, boolean failed) {
+            latency.record(nanos);
+            if (failed) {
+                errors.increment();
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/** Class containing the version numbers of the comment pages */
+package com.google.sps.data;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Per-page version number, bumped on every change to the page's comments.
+ *
+ * Versions are counters in memcache, so every instance hands out the same
+ * version for a page and sees the bumps of the others. A counter that
+ * memcache evicted starts again at a random value, so versions handed out
+ * before the eviction are very unlikely to match again. If memcache fails,
+ * a version that matches nothing is returned, and clients refetch.
+ */
+public final class PageVersions {
+
+    private static final String KEY_PREFIX = "PageVersions:";
+    private static final PageVersions INSTANCE = new PageVersions();
+
+    private final MemcacheService memcache =
+        MemcacheServiceFactory.getMemcacheService();
+
+    public static PageVersions getInstance() {
+        return INSTANCE;
+    }
+
+    public String get(String page) {
+        try {
+            // Adding 0 reads the counter, and creates it if it is missing.
+            Long version = memcache.increment(KEY_PREFIX + page, 0,
+                newStart());
+            if (version != null) {
+                return version.toString();
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Could not read the version of " + page + ": "
+                + e.getMessage());
+        }
+        return "u" + UUID.randomUUID();
+    }
+
+    public void bump(String page) {
+        try {
+            memcache.increment(KEY_PREFIX + page, 1, newStart());
+        } catch (RuntimeException e) {
+            System.err.println("Could not bump the version of " + page + ": "
+                + e.getMessage());
+            // A missing counter restarts at a random value instead.
+            try {
+                memcache.delete(KEY_PREFIX + page);
+            } catch (RuntimeException deleteError) {
+                System.err.println("Could not reset the version of " + page
+                    + ": " + deleteError.getMessage());
+            }
+        }
+    }
+
+    /** Returns the value a missing counter starts at */
+    private static Long newStart() {
+        return ThreadLocalRandom.current().nextLong(Long.MAX_VALUE / 2);
+    }
+
+}
@@ -0,0 +1,67 @@
+/** Class containing a comment that is acknowledged but not yet in Datastore */
+package com.google.sps.data;
+import java.util.Date;
+
+public final class PendingComment {
+
+    private final String page;
+    private final String id;
+    private final String userName;
+    private final String userEmail;
+    private final String text;
+    private final String emotion;
+    private final String imageUrl;
+    /** Milliseconds since the epoch, so the journal keeps the exact date */
+    private final long date;
+
+    public PendingComment(String page, String id, String userName,
+        String userEmail, String text, Date date, String emotion,
+        String imageUrl) {
+        this.page = page;
+        this.id = id;
+        this.userName = userName;
+        this.userEmail = userEmail;
+        this.text = text;
+        this.date = date.getTime();
+        this.emotion = emotion;
+        this.imageUrl = imageUrl;
+    }
+
+    public String getPage() {
+        return page;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getUserName() {
+        return userName;
+    }
+
+    public String getUserEmail() {
+        return userEmail;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public Date getDate() {
+        return new Date(date);
+    }
+
+    public String getEmotion() {
+        return emotion;
+    }
+
+    public String getImageUrl() {
+        return imageUrl;
+    }
+
+    public Comment toComment() {
+        return new Comment(text, userName, userEmail, getDate(), emotion,
+            false, id, imageUrl);
+    }
+
+}
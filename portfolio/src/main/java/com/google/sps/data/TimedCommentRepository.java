@@ -0,0 +1,146 @@
+/** Class containing the timing of comment storage calls */
+package com.google.sps.data;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Records the latency and failures of every call to another repository in
+ * Metrics, by operation. A query is recorded twice: "query" while it is
+ * opened, and "query.fetch" for the time spent reading its results.
+ */
+public final class TimedCommentRepository implements CommentRepository {
+
+    private final CommentRepository repository;
+    private final Metrics metrics = Metrics.getInstance();
+
+    public TimedCommentRepository(CommentRepository repository) {
+        this.repository = repository;
+    }
+
+    @Override
+    public String newId(String page) {
+        return repository.newId(page);
+    }
+
+    @Override
+    public boolean isValidId(String page, String id) {
+        return repository.isValidId(page, id);
+    }
+
+    @Override
+    public List<Comment> save(String page, List<Comment> comments) {
+        return time("save", () -> repository.save(page, comments));
+    }
+
+    @Override
+    public CommentIterator query(String page, int limit, String cursor) {
+        final CommentIterator results = time("query",
+            () -> repository.query(page, limit, cursor));
+        final Metrics.StorageMetrics fetch =
+            metrics.getStorageMetrics("query.fetch");
+
+        return new CommentIterator() {
+            private long nanos;
+            private boolean recorded;
+
+            @Override
+            public boolean hasNext() {
+                long start = System.nanoTime();
+                boolean failed = true;
+                try {
+                    boolean hasNext = results.hasNext();
+                    failed = false;
+                    nanos += System.nanoTime() - start;
+                    if (!hasNext) {
+                        record(false);
+                    }
+                    return hasNext;
+                } finally {
+                    if (failed) {
+                        nanos += System.nanoTime() - start;
+                        record(true);
+                    }
+                }
+            }
+
+            @Override
+            public Comment next() {
+                long start = System.nanoTime();
+                try {
+                    return results.next();
+                } finally {
+                    nanos += System.nanoTime() - start;
+                }
+            }
+
+            @Override
+            public String getCursor() {
+                return results.getCursor();
+            }
+
+            /** Records the fetch once, when the results end or fail. */
+            private void record(boolean failed) {
+                if (!recorded) {
+                    recorded = true;
+                    fetch.recordDuration(nanos, failed);
+                }
+            }
+        };
+    }
+
+    @Override
+    public Comment get(String page, String id) {
+        return time("get", () -> repository.get(page, id));
+    }
+
+    @Override
+    public Comment update(String page, String id,
+        UnaryOperator<Comment> change) {
+        return time("update", () -> repository.update(page, id, change));
+    }
+
+    @Override
+    public void delete(String page, String id) {
+        time("delete", () -> {
+            repository.delete(page, id);
+            return null;
+        });
+    }
+
+    @Override
+    public List<String> deleteChunk(String page, int max) {
+        return time("deleteChunk", () -> repository.deleteChunk(page, max));
+    }
+
+    @Override
+    public long count(String page) {
+        return time("count", () -> repository.count(page));
+    }
+
+    @Override
+    public EmotionCounts getEmotionCounts(String page, LocalDate from) {
+        return time("emotionCounts",
+            () -> repository.getEmotionCounts(page, from));
+    }
+
+    @Override
+    public List<String> getPages() {
+        return time("getPages", repository::getPages);
+    }
+
+    private <T> T time(String operation, Supplier<T> call) {
+        Metrics.StorageMetrics storageMetrics =
+            metrics.getStorageMetrics(operation);
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = call.get();
+            failed = false;
+            return result;
+        } finally {
+            storageMetrics.record(start, failed);
+        }
+    }
+}
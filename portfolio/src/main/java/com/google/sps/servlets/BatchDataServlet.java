@@ -0,0 +1,168 @@
+package com.google.sps.servlets;
+
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentRepositories;
+import com.google.sps.data.CommentRepository;
+import com.google.sps.data.CommentSubmission;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Imports a JSON array of comments into a page with multi-entity puts.
+ * The response reports the id or the error of every submitted comment.
+ *
+ * Every comment gets its id before its chunk is put, so a chunk whose put
+ * fails is retried once with the same keys without duplicating the
+ * comments that were written. A chunk that fails again is reported as
+ * unknown with its ids: part of it may have been stored.
+ */
+@WebServlet("/data/batch")
+public class BatchDataServlet extends HttpServlet {
+
+    private static final Gson GSON = new Gson();
+    /** Datastore accepts at most 500 entities in a single put */
+    static final int PUT_CHUNK_SIZE = 500;
+    static final int MAX_BATCH_SIZE = 10000;
+    private static final int PUT_ATTEMPTS = 2;
+
+    @Override
+    public void doPost(HttpServletRequest request, HttpServletResponse response)
+    throws IOException {
+        UserService userService = UserServiceFactory.getUserService();
+        if (!userService.isUserLoggedIn() || !userService.isUserAdmin()) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+
+        String page = request.getParameter("page");
+        if (page == null || page.isEmpty()) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                "Missing page");
+            return;
+        }
+
+        CommentSubmission[] submissions;
+        try {
+            submissions = GSON.fromJson(request.getReader(),
+                CommentSubmission[].class);
+        } catch (JsonParseException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                "Body is not a JSON array of comments");
+            return;
+        }
+        if (submissions == null) {
+            submissions = new CommentSubmission[0];
+        }
+        if (submissions.length > MAX_BATCH_SIZE) {
+            response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE,
+                "At most " + MAX_BATCH_SIZE + " comments per batch");
+            return;
+        }
+
+        String importerEmail = userService.getCurrentUser().getEmail();
+        List<Map<String, Object>> results = new ArrayList<>();
+        List<Comment> chunk = new ArrayList<>();
+        List<Map<String, Object>> chunkResults = new ArrayList<>();
+        int written = 0;
+        int unknown = 0;
+        CommentRepository repository = CommentRepositories.get();
+
+        for (int i = 0; i < submissions.length; i++) {
+            CommentSubmission submission = submissions[i];
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("index", i);
+            results.add(result);
+
+            String error = submission == null ? "comment is null"
+                : submission.validate();
+            if (error != null) {
+                result.put("error", error);
+                continue;
+            }
+
+            String userEmail = submission.getUserEmail() == null
+                ? importerEmail : submission.getUserEmail();
+            Date date = submission.getDate() == null
+                ? new Date() : submission.getDate();
+            chunk.add(new Comment(submission.getText(), submission.getAuthor(),
+                userEmail, date, submission.getEmotion(), false,
+                repository.newId(page),
+                submission.getImageUrl(), submission.getThumbnailUrl()));
+            chunkResults.add(result);
+
+            if (chunk.size() == PUT_CHUNK_SIZE) {
+                int chunkSize = chunk.size();
+                int chunkWritten = putChunk(repository, page, chunk,
+                    chunkResults);
+                written += chunkWritten;
+                unknown += chunkSize - chunkWritten;
+            }
+        }
+        int chunkSize = chunk.size();
+        int chunkWritten = putChunk(repository, page, chunk, chunkResults);
+        written += chunkWritten;
+        unknown += chunkSize - chunkWritten;
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("written", written);
+        summary.put("unknown", unknown);
+        summary.put("failed", submissions.length - written - unknown);
+        summary.put("results", results);
+
+        response.setContentType("application/json;");
+        response.getWriter().println(GSON.toJson(summary));
+    }
+
+    /**
+     * Writes the chunk with a single put, retried with the same ids if it
+     * fails, records the outcome of each of its comments and empties it.
+     * Returns the number of comments written.
+     */
+    private int putChunk(CommentRepository repository, String page,
+        List<Comment> chunk, List<Map<String, Object>> chunkResults) {
+        if (chunk.isEmpty()) {
+            return 0;
+        }
+
+        int written = 0;
+        for (int attempt = 1; attempt <= PUT_ATTEMPTS; attempt++) {
+            try {
+                List<Comment> saved = repository.save(page, chunk);
+                for (int i = 0; i < saved.size(); i++) {
+                    chunkResults.get(i).put("id", saved.get(i).getId());
+                }
+                CommentChanges.commentsAdded(page, saved);
+                written = saved.size();
+                break;
+            } catch (RuntimeException e) {
+                // Storage failures are unchecked; the next chunk is still
+                // tried.
+                System.err.println("Could not write comment batch: "
+                    + e.getMessage());
+            }
+        }
+        if (written == 0) {
+            // A failed put may still have stored some of the entities.
+            for (int i = 0; i < chunk.size(); i++) {
+                chunkResults.get(i).put("id", chunk.get(i).getId());
+                chunkResults.get(i).put("status", "unknown");
+            }
+        }
+
+        chunk.clear();
+        chunkResults.clear();
+        return written;
+    }
+}
@@ -0,0 +1,61 @@
+package com.google.sps.servlets;
+
+import com.google.sps.data.PageVersions;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Returns what a page needs on load in one response: the login state, as
+ * returned by /user, and the first batch of comments, as returned by /data.
+ */
+@WebServlet("/bootstrap")
+public class BootstrapServlet extends HttpServlet {
+
+    @Override
+    public void doGet(HttpServletRequest request, HttpServletResponse response)
+    throws IOException {
+        int maxNumComments = CommentFeed.parseLimit(
+            request.getParameter("comments-number"),
+            DataServlet.DEFAULT_COMMENTS_NUMBER,
+            DataServlet.MAX_COMMENTS_NUMBER);
+        String page = request.getParameter("page");
+
+        String currentUserEmail = null;
+        UserService userService = UserServiceFactory.getUserService();
+        if (userService.getCurrentUser() != null) {
+            currentUserEmail = userService.getCurrentUser().getEmail();
+        }
+
+        // The login and logout URLs only depend on the page, so the email
+        // stands for the whole login state.
+        String etag = ConditionalGet.createETag(
+            PageVersions.getInstance().get(page),
+            String.valueOf(maxNumComments), currentUserEmail, "bootstrap");
+        if (ConditionalGet.isNotModified(request, response, etag)) {
+            return;
+        }
+
+        // The comments are fetched in the background while the login state
+        // is built.
+        CommentFeed feed = CommentFeed.open(page, maxNumComments, null);
+        String userJson = UserServlet.getUserJson(userService, "/" + page);
+
+        response.setContentType("application/json;");
+        JsonWriter writer = new JsonWriter(response.getWriter());
+        writer.beginObject();
+        writer.name("user").jsonValue(userJson);
+        writer.name("comments");
+        writer.beginArray();
+        String nextCursor = feed.write(writer, currentUserEmail);
+        writer.endArray();
+        writer.name("cursor").value(nextCursor);
+        writer.endObject();
+        writer.flush();
+    }
+}
@@ -0,0 +1,102 @@
+package com.google.sps.servlets;
+
+import com.google.sps.data.CommentRepositories;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Deletes every comment of a page in bounded chunks. In Datastore each chunk
+ * is read with a keys-only query, so neither the entities nor the full list
+ * of keys are ever held in memory. Each chunk after the first runs in its
+ * own task; the job's progress is stored by BulkDeleteJobs between them.
+ */
+final class BulkDeleteJob {
+
+    /** Datastore accepts at most 500 keys in a single delete */
+    static final int CHUNK_SIZE = 500;
+
+    enum State { RUNNING, DONE, FAILED }
+
+    private final String id;
+    private final String page;
+    private final long startedMillis;
+    private State state = State.RUNNING;
+    private long deleted;
+    private long chunks;
+    private long finishedMillis;
+    private String error;
+
+    BulkDeleteJob(String page) {
+        this(UUID.randomUUID().toString(), page, System.currentTimeMillis());
+    }
+
+    /**
+     * Restores a stored job; its progress is set with restore.
+     */
+    BulkDeleteJob(String id, String page, long startedMillis) {
+        this.id = id;
+        this.page = page;
+        this.startedMillis = startedMillis;
+    }
+
+    void restore(State state, long deleted, long chunks, long finishedMillis,
+        String error) {
+        this.state = state;
+        this.deleted = deleted;
+        this.chunks = chunks;
+        this.finishedMillis = finishedMillis;
+        this.error = error;
+    }
+
+    /**
+     * Deletes one chunk of the page's comments. Returns true if the chunk
+     * was full, so more comments may be left.
+     */
+    boolean deleteChunk() {
+        List<String> ids = CommentRepositories.get()
+            .deleteChunk(page, CHUNK_SIZE);
+        CommentChanges.commentsRemoved(page, ids);
+        deleted += ids.size();
+        chunks++;
+        return ids.size() == CHUNK_SIZE;
+    }
+
+    void finish(State state, String error) {
+        this.error = error;
+        this.finishedMillis = System.currentTimeMillis();
+        this.state = state;
+    }
+
+    String getId() {
+        return id;
+    }
+
+    String getPage() {
+        return page;
+    }
+
+    State getState() {
+        return state;
+    }
+
+    long getDeleted() {
+        return deleted;
+    }
+
+    /** Returns the number of chunks deleted so far */
+    long getChunks() {
+        return chunks;
+    }
+
+    long getStartedMillis() {
+        return startedMillis;
+    }
+
+    long getFinishedMillis() {
+        return finishedMillis;
+    }
+
+    String getError() {
+        return error;
+    }
+}
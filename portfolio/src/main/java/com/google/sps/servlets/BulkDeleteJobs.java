@@ -0,0 +1,101 @@
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
+
+/**
+ * Runs the rest of a bulk delete as a chain of Task Queue tasks, one chunk
+ * per task, and stores the progress of each job in Datastore, so its status
+ * can be polled from any instance.
+ *
+ * Tasks are named after the job and chunk, so a task that is retried after
+ * it already enqueued the next one doesn't start a second chain.
+ */
+final class BulkDeleteJobs {
+
+    static final String KIND = "BulkDeleteJob";
+    /** Mapped to BulkDeleteTaskServlet; only admins and Task Queue can call */
+    static final String TASK_URL = "/tasks/bulk-delete";
+
+    private static final BulkDeleteJobs INSTANCE = new BulkDeleteJobs();
+
+    private final DatastoreService datastore =
+        DatastoreServiceFactory.getDatastoreService();
+
+    static BulkDeleteJobs getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Stores the job and enqueues the task that deletes its next chunk.
+     */
+    void submit(BulkDeleteJob job) {
+        save(job);
+        try {
+            enqueue(job);
+        } catch (RuntimeException e) {
+            System.err.println("Could not enqueue bulk delete of "
+                + job.getPage() + ": " + e.getMessage());
+            job.finish(BulkDeleteJob.State.FAILED, "rejected");
+            save(job);
+        }
+    }
+
+    /**
+     * Enqueues the task that deletes the next chunk of the job. Does
+     * nothing if that task was already enqueued.
+     */
+    void enqueue(BulkDeleteJob job) {
+        try {
+            QueueFactory.getDefaultQueue().add(
+                TaskOptions.Builder.withUrl(TASK_URL)
+                    .taskName(job.getId() + "-" + job.getChunks())
+                    .param("job", job.getId()));
+        } catch (TaskAlreadyExistsException e) {
+            // A retried task enqueues the same next task again.
+        }
+    }
+
+    /**
+     * Returns the stored job with that id, or null if there is none.
+     */
+    BulkDeleteJob get(String id) {
+        Entity entity;
+        try {
+            entity = datastore.get(KeyFactory.createKey(KIND, id));
+        } catch (EntityNotFoundException e) {
+            return null;
+        }
+
+        BulkDeleteJob job = new BulkDeleteJob(id,
+            (String) entity.getProperty("page"),
+            (Long) entity.getProperty("startedMillis"));
+        job.restore(
+            BulkDeleteJob.State.valueOf((String) entity.getProperty("state")),
+            (Long) entity.getProperty("deleted"),
+            (Long) entity.getProperty("chunks"),
+            (Long) entity.getProperty("finishedMillis"),
+            (String) entity.getProperty("error"));
+        return job;
+    }
+
+    void save(BulkDeleteJob job) {
+        Key key = KeyFactory.createKey(KIND, job.getId());
+        Entity entity = new Entity(key);
+        entity.setUnindexedProperty("page", job.getPage());
+        entity.setUnindexedProperty("state", job.getState().name());
+        entity.setUnindexedProperty("deleted", job.getDeleted());
+        entity.setUnindexedProperty("chunks", job.getChunks());
+        entity.setUnindexedProperty("startedMillis", job.getStartedMillis());
+        entity.setUnindexedProperty("finishedMillis", job.getFinishedMillis());
+        entity.setUnindexedProperty("error", job.getError());
+        datastore.put(entity);
+    }
+}
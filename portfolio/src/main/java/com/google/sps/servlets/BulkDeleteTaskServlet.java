@@ -0,0 +1,60 @@
+package com.google.sps.servlets;
+
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Task Queue handler that deletes the next chunk of a bulk delete and
+ * enqueues the chunk after it. A failed chunk answers 500, so Task Queue
+ * retries it, until MAX_RETRIES retries have failed.
+ */
+@WebServlet(BulkDeleteJobs.TASK_URL)
+public class BulkDeleteTaskServlet extends HttpServlet {
+
+    static final int MAX_RETRIES = 5;
+    private static final String RETRY_COUNT_HEADER =
+        "X-AppEngine-TaskRetryCount";
+
+    @Override
+    public void doPost(HttpServletRequest request, HttpServletResponse response)
+    throws IOException {
+        BulkDeleteJobs jobs = BulkDeleteJobs.getInstance();
+        String jobId = request.getParameter("job");
+        BulkDeleteJob job = jobId == null ? null : jobs.get(jobId);
+        if (job == null || job.getState() != BulkDeleteJob.State.RUNNING) {
+            // Nothing to do; answering an error would only retry the task.
+            return;
+        }
+
+        try {
+            if (job.deleteChunk()) {
+                jobs.save(job);
+                jobs.enqueue(job);
+            } else {
+                job.finish(BulkDeleteJob.State.DONE, null);
+                jobs.save(job);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Could not delete comments of " + job.getPage()
+                + ": " + e.getMessage());
+            if (getRetryCount(request) < MAX_RETRIES) {
+                response.sendError(
+                    HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                return;
+            }
+            job.finish(BulkDeleteJob.State.FAILED, e.getMessage());
+            jobs.save(job);
+        }
+    }
+
+    private static int getRetryCount(HttpServletRequest request) {
+        try {
+            return Integer.parseInt(request.getHeader(RETRY_COUNT_HEADER));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.google.sps.servlets;
+
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentCache;
+import com.google.sps.data.CommentSearchIndex;
+import com.google.sps.data.PageVersions;
+import java.util.Collection;
+
+/**
+ * Keeps everything derived from a page's comments in step with its writes
+ * and pushes the change to the page's comment streams.
+ * Called after every write to the page, once the write is visible to
+ * readers.
+ */
+final class CommentChanges {
+
+    private CommentChanges() {
+    }
+
+    static void commentAdded(String page, Comment comment) {
+        CommentSearchIndex.getInstance().add(page, comment);
+        pageChanged(page);
+        CommentStream.getInstance().commentAdded(page, comment);
+    }
+
+    /**
+     * Called after a batch of comments is written to the page, so what was
+     * read from it is invalidated once rather than once per comment.
+     */
+    static void commentsAdded(String page, Collection<Comment> comments) {
+        CommentSearchIndex index = CommentSearchIndex.getInstance();
+        for (Comment comment: comments) {
+            index.add(page, comment);
+        }
+        pageChanged(page);
+        CommentStream stream = CommentStream.getInstance();
+        for (Comment comment: comments) {
+            stream.commentAdded(page, comment);
+        }
+    }
+
+    /**
+     * Called when a stored comment changes without changing its text, such
+     * as when its image is processed.
+     */
+    static void commentUpdated(String page, Comment comment) {
+        CommentSearchIndex.getInstance().add(page, comment);
+        pageChanged(page);
+        CommentStream.getInstance().commentUpdated(page, comment);
+    }
+
+    static void commentsRemoved(String page, Collection<String> ids) {
+        CommentSearchIndex index = CommentSearchIndex.getInstance();
+        for (String id: ids) {
+            index.remove(page, id);
+        }
+        pageChanged(page);
+        CommentStream.getInstance().commentsRemoved(page, ids);
+    }
+
+    static void pageCleared(String page) {
+        CommentSearchIndex.getInstance().removePage(page);
+        pageChanged(page);
+        CommentStream.getInstance().pageCleared(page);
+    }
+
+    /**
+     * Invalidates what was read from the page when the change does not add
+     * or remove comments, such as a write-behind flush.
+     */
+    static void pageChanged(String page) {
+        CommentCache.getInstance().invalidate(page);
+        PageVersions.getInstance().bump(page);
+    }
+}
@@ -0,0 +1,57 @@
+package com.google.sps.servlets;
+
+import com.google.sps.data.CommentCountCache;
+import com.google.sps.data.CommentRepositories;
+import com.google.sps.data.PageVersions;
+import com.google.gson.JsonObject;
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Returns the number of comments of a page, e.g. {"page": "career.html",
+ * "count": 12}. Comments still in the write-behind queue are included.
+ */
+@WebServlet("/data/count")
+public class CommentCountServlet extends HttpServlet {
+
+    @Override
+    public void doGet(HttpServletRequest request, HttpServletResponse response)
+    throws IOException {
+        String page = request.getParameter("page");
+        if (page == null || page.isEmpty()) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                "Missing page");
+            return;
+        }
+
+        // Taken before the count is read, so a write in between changes it.
+        String version = PageVersions.getInstance().get(page);
+        CommentCountCache cache = CommentCountCache.getInstance();
+        Long count = cache.get(page, version);
+        if (count == null) {
+            count = CommentRepositories.get().count(page);
+            cache.put(page, version, count);
+        }
+
+        WriteBehindQueue writeBehindQueue = WriteBehindQueue.getInstance();
+        if (writeBehindQueue.isEnabled()) {
+            count += writeBehindQueue.getPending(page).size();
+        }
+
+        // Derived from the count itself, so a 304 never confirms a count
+        // other than the one this response would carry.
+        if (ConditionalGet.isNotModified(request, response,
+            ConditionalGet.createETag(String.valueOf(count), "count"))) {
+            return;
+        }
+
+        JsonObject json = new JsonObject();
+        json.addProperty("page", page);
+        json.addProperty("count", count);
+        response.setContentType("application/json;");
+        response.getWriter().println(json);
+    }
+}
@@ -0,0 +1,164 @@
+package com.google.sps.servlets;
+
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentCache;
+import com.google.sps.data.CommentIterator;
+import com.google.sps.data.CommentJson;
+import com.google.sps.data.CommentPage;
+import com.google.sps.data.CommentRepositories;
+import com.google.sps.data.PendingComment;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * One batch of the comments of a page, newest first. Comments still in the
+ * write-behind queue lead the first batch, followed by the stored ones,
+ * which come from the comment cache when it has the batch.
+ */
+final class CommentFeed {
+
+    private static final Gson GSON = new Gson();
+
+    private final String page;
+    private final int limit;
+    private final String cursor;
+    private final long generation;
+    private final CommentPage cached;
+    private final CommentIterator results;
+
+    private CommentFeed(String page, int limit, String cursor,
+        long generation, CommentPage cached, CommentIterator results) {
+        this.page = page;
+        this.limit = limit;
+        this.cursor = cursor;
+        this.generation = generation;
+        this.cached = cached;
+        this.results = results;
+    }
+
+    /**
+     * Starts reading the batch of up to limit comments after the cursor, or
+     * the first batch if cursor is null. The repository fetches in the
+     * background until the batch is written.
+     *
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    static CommentFeed open(String page, int limit, String cursor) {
+        // Each request reads only the batch it returns, starting where the
+        // previous batch stopped.
+        CommentCache cache = CommentCache.getInstance();
+        CommentPage cached = cache.get(page, limit, cursor);
+        long generation = cache.getGeneration(page);
+        CommentIterator results = null;
+        if (cached == null) {
+            results = CommentRepositories.get().query(page, limit, cursor);
+        }
+        return new CommentFeed(page, limit, cursor, generation, cached,
+            results);
+    }
+
+    /**
+     * Parses the number of comments of a batch, falling back to the default
+     * when it is missing or out of range.
+     */
+    static int parseLimit(String value, int defaultLimit, int maxLimit) {
+        int limit = defaultLimit;
+        if (value != null && !value.isEmpty()) {
+            try {
+                limit = Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                System.err.println("Could not convert to int: " + value);
+            }
+        }
+        if (limit <= 0 || limit > maxLimit) {
+            limit = defaultLimit;
+        }
+        return limit;
+    }
+
+    /**
+     * Writes the comment as the viewer sees it, copying its stored JSON when
+     * it has one.
+     */
+    static void writeComment(JsonWriter writer, Comment comment,
+        String viewerEmail) throws IOException {
+        String json = CommentJson.forViewer(comment, viewerEmail);
+        if (json != null) {
+            writer.jsonValue(json);
+        } else {
+            GSON.toJson(comment.forViewer(viewerEmail), Comment.class, writer);
+        }
+    }
+
+    /**
+     * Writes the comments of the batch, as the viewer sees them, into the
+     * array open in writer. Returns the cursor of the next batch, or null at
+     * the end of the feed.
+     */
+    String write(JsonWriter writer, String viewerEmail) throws IOException {
+        // Comments still in the write-behind queue are the newest ones, so
+        // they lead the first batch. Once flushed, Datastore returns them too.
+        Set<String> pendingIds = new HashSet<>();
+        WriteBehindQueue writeBehindQueue = WriteBehindQueue.getInstance();
+        if (writeBehindQueue.isEnabled() && cursor == null) {
+            for (PendingComment pending: writeBehindQueue.getPending(page)) {
+                pendingIds.add(pending.getId());
+                writeComment(writer, pending.toComment(), viewerEmail);
+            }
+        }
+
+        // Cached comments are shared, so the viewer is applied while writing.
+        if (cached != null) {
+            for (Comment comment: cached.getComments()) {
+                if (!pendingIds.contains(comment.getId())) {
+                    writeComment(writer, comment, viewerEmail);
+                }
+            }
+            return cached.getCursor();
+        }
+
+        List<Comment> batch = new ArrayList<>();
+        String nextCursor = streamComments(viewerEmail, pendingIds, writer,
+            batch);
+        CommentCache.getInstance().put(page, limit, cursor,
+            new CommentPage(batch, nextCursor), generation);
+        return nextCursor;
+    }
+
+    /**
+     * Writes one batch of comments as they are read from the repository,
+     * except the ones already written as pending, and collects their
+     * viewer-neutral form into batch.
+     * Returns the cursor of the next batch, or null at the end of the feed.
+     */
+    private String streamComments(String viewerEmail, Set<String> pendingIds,
+        JsonWriter writer, List<Comment> batch) throws IOException {
+        int count = 0;
+        while (results.hasNext()) {
+            Comment comment;
+            try {
+                comment = results.next();
+            } catch (ClassCastException e) {
+                System.err.println("Could not cast entry property");
+                break;
+            }
+            count++;
+
+            batch.add(comment);
+            if (!pendingIds.contains(comment.getId())) {
+                writeComment(writer, comment, viewerEmail);
+            }
+        }
+
+        // A short batch means the end of the feed was reached.
+        if (count < limit) {
+            return null;
+        }
+        return results.getCursor();
+    }
+}
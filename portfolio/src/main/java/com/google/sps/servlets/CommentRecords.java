@@ -0,0 +1,104 @@
+package com.google.sps.servlets;
+
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentSubmission;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import java.util.Map;
+
+/**
+ * The newline-delimited JSON of /data/export and /data/import. Each line
+ * is either a comment, in the shape of a CommentSubmission plus its id and
+ * thumbnailUrl, or a report of the form {"checkpoint": {...}},
+ * {"done": {...}} or {"error": {...}}. Importing skips the reports, so an
+ * export can be imported as it is.
+ *
+ * App Engine buffers each response, so a client sees none of its lines
+ * until the request ends. Export and import therefore stop after
+ * MAX_RESPONSE_MILLIS and end the response with a checkpoint instead of
+ * done, to be resumed with another request.
+ */
+final class CommentRecords {
+
+    static final String CONTENT_TYPE = "application/x-ndjson";
+    /** Well within the 60 second deadline of a request */
+    static final long MAX_RESPONSE_MILLIS = 40_000;
+
+    /** Dates keep their milliseconds, so comments keep their order */
+    private static final Gson GSON = new GsonBuilder()
+        .setDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ")
+        .create();
+
+    private CommentRecords() {
+    }
+
+    /** Returns the line of a comment, without the line break. */
+    static String toLine(Comment comment) {
+        JsonObject record = new JsonObject();
+        record.addProperty("id", comment.getId());
+        record.addProperty("author", comment.getUserName());
+        record.addProperty("text", comment.getContent());
+        record.addProperty("emotion", comment.getEmotion());
+        record.addProperty("userEmail", comment.getUserEmail());
+        record.add("date", GSON.toJsonTree(comment.getDate()));
+        record.addProperty("imageUrl", comment.imageUrl());
+        record.addProperty("thumbnailUrl", comment.getThumbnailUrl());
+        return GSON.toJson(record);
+    }
+
+    /** Returns the line of a report of the given type. */
+    static String toLine(String type, Map<String, Object> progress) {
+        JsonObject record = new JsonObject();
+        record.add(type, GSON.toJsonTree(progress));
+        return GSON.toJson(record);
+    }
+
+    /**
+     * Parses a comment line, or returns null for a report.
+     *
+     * @throws JsonParseException if the line is not a JSON object
+     */
+    static CommentLine parse(String line) {
+        JsonElement element = JsonParser.parseString(line);
+        if (!element.isJsonObject()) {
+            throw new JsonParseException("Not a JSON object");
+        }
+        JsonObject record = element.getAsJsonObject();
+        if (record.has("checkpoint") || record.has("done")
+            || record.has("error")) {
+            return null;
+        }
+        JsonElement id = record.get("id");
+        return new CommentLine(GSON.fromJson(record, CommentSubmission.class),
+            id == null || !id.isJsonPrimitive() ? null : id.getAsString());
+    }
+
+    /** Returns whether the time since startNanos ends the response. */
+    static boolean isOutOfTime(long startNanos) {
+        return System.nanoTime() - startNanos
+            > MAX_RESPONSE_MILLIS * 1_000_000;
+    }
+
+    /** Returns how many items were handled per second since startNanos. */
+    static double getPerSecond(long items, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        return nanos == 0 ? 0 : items * 1e9 / nanos;
+    }
+
+    /** A parsed comment line */
+    static final class CommentLine {
+
+        final CommentSubmission submission;
+        /** The exported id, or null if there is none */
+        final String id;
+
+        CommentLine(CommentSubmission submission, String id) {
+            this.submission = submission;
+            this.id = id;
+        }
+    }
+}
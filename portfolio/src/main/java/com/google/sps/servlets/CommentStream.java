@@ -0,0 +1,391 @@
+package com.google.sps.servlets;
+
+import com.google.sps.data.Comment;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+/**
+ * In-process fan-out of comment changes to the Server-Sent Events streams
+ * of /data/stream. Every change gets an id and is kept in a short per-page
+ * history, so a client that reconnects with Last-Event-ID gets what it
+ * missed.
+ *
+ * Subscribers are written with non-blocking output, so neither an idle nor
+ * a slow connection holds a thread. Each subscriber buffers at most
+ * MAX_QUEUED_EVENTS events; a client that falls further behind is
+ * disconnected and reloads the comments when its browser reconnects.
+ *
+ * Streaming is off unless the comments.stream system property is true. The
+ * fan-out only reaches clients of the instance where the change was made,
+ * and each open stream ties up an instance when requests are not
+ * concurrent, so it suits a single manually scaled instance. App Engine
+ * standard buffers responses, and there events arrive only when the
+ * stream times out.
+ */
+final class CommentStream {
+
+    static final String ENABLED_PROPERTY = "comments.stream";
+
+    static final int MAX_QUEUED_EVENTS = 64;
+    static final int HISTORY_SIZE = 32;
+    static final long HEARTBEAT_INTERVAL_MILLIS = 20000;
+    static final long RECONNECT_DELAY_MILLIS = 1000;
+
+    private static final Gson GSON = new Gson();
+    private static final byte[] HEARTBEAT =
+        ": heartbeat\n\n".getBytes(StandardCharsets.UTF_8);
+    private static final CommentStream INSTANCE =
+        new CommentStream(Boolean.getBoolean(ENABLED_PROPERTY));
+
+    private final AtomicLong lastEventId = new AtomicLong(
+        System.currentTimeMillis());
+    private final Map<String, Set<Subscriber>> subscribers =
+        new ConcurrentHashMap<>();
+    private final Map<String, History> history =
+        new ConcurrentHashMap<>();
+    private final AtomicLong droppedSubscribers = new AtomicLong();
+    private final boolean enabled;
+    private volatile ScheduledExecutorService heartbeat;
+
+    CommentStream(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    static CommentStream getInstance() {
+        return INSTANCE;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Starts sending heartbeats to keep idle connections open. */
+    synchronized void start() {
+        if (!enabled || heartbeat != null) {
+            return;
+        }
+        heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "comment-stream-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeat.scheduleWithFixedDelay(this::sendHeartbeat,
+            HEARTBEAT_INTERVAL_MILLIS, HEARTBEAT_INTERVAL_MILLIS,
+            TimeUnit.MILLISECONDS);
+    }
+
+    /** Stops the heartbeats and closes every stream. */
+    synchronized void stop() {
+        if (heartbeat != null) {
+            heartbeat.shutdownNow();
+            heartbeat = null;
+        }
+        for (Set<Subscriber> pageSubscribers: subscribers.values()) {
+            for (Subscriber subscriber: pageSubscribers) {
+                subscriber.close();
+            }
+        }
+    }
+
+    /**
+     * Starts streaming the page's changes to an async request. When
+     * lastEventId is set, the events after it are sent first, or a reset
+     * event if they are no longer in the history.
+     */
+    void subscribe(String page, String viewerEmail, Long lastEventId,
+        AsyncContext context) throws IOException {
+        Subscriber subscriber = new Subscriber(page, viewerEmail, context);
+        subscriber.offer(("retry: " + RECONNECT_DELAY_MILLIS + "\n\n")
+            .getBytes(StandardCharsets.UTF_8));
+
+        // Registered before reading the history, so an event published in
+        // between is sent twice rather than lost; clients dedupe by id.
+        subscribers.computeIfAbsent(page,
+            key -> ConcurrentHashMap.newKeySet()).add(subscriber);
+        if (lastEventId != null) {
+            for (Event event: getMissedEvents(page, lastEventId)) {
+                subscriber.offer(event.serialize(viewerEmail));
+            }
+        }
+        context.addListener(subscriber);
+        context.getResponse().getOutputStream().setWriteListener(subscriber);
+    }
+
+    void commentAdded(String page, Comment comment) {
+        publish(page, "comment", comment, null);
+    }
+
+    void commentUpdated(String page, Comment comment) {
+        publish(page, "update", comment, null);
+    }
+
+    void commentsRemoved(String page, Collection<String> ids) {
+        for (String id: ids) {
+            publish(page, "delete", null, id);
+        }
+    }
+
+    void pageCleared(String page) {
+        publish(page, "clear", null, null);
+    }
+
+    int getSubscriberCount() {
+        int count = 0;
+        for (Set<Subscriber> pageSubscribers: subscribers.values()) {
+            count += pageSubscribers.size();
+        }
+        return count;
+    }
+
+    long getDroppedSubscribers() {
+        return droppedSubscribers.get();
+    }
+
+    private void publish(String page, String type, Comment comment,
+        String deletedId) {
+        if (!enabled) {
+            return;
+        }
+        Event event = new Event(lastEventId.incrementAndGet(), type, comment,
+            deletedId);
+        history.computeIfAbsent(page, key -> new History()).add(event);
+
+        Set<Subscriber> pageSubscribers = subscribers.get(page);
+        if (pageSubscribers == null || pageSubscribers.isEmpty()) {
+            return;
+        }
+        // Viewers only differ in whether they may delete the comment.
+        byte[] forOthers = event.serialize(null);
+        byte[] forAuthor = comment == null ? forOthers
+            : event.serialize(comment.getUserEmail());
+        for (Subscriber subscriber: pageSubscribers) {
+            boolean isAuthor = comment != null && subscriber.viewerEmail != null
+                && subscriber.viewerEmail.equals(comment.getUserEmail());
+            subscriber.offer(isAuthor ? forAuthor : forOthers);
+        }
+    }
+
+    /**
+     * Returns the page's events after lastEventId, or a single reset event
+     * when some of them were already dropped from the history.
+     */
+    private List<Event> getMissedEvents(String page, long lastEventId) {
+        History pageHistory = history.get(page);
+        if (pageHistory == null) {
+            return new ArrayList<>();
+        }
+        return pageHistory.getAfter(lastEventId);
+    }
+
+    private void sendHeartbeat() {
+        for (Set<Subscriber> pageSubscribers: subscribers.values()) {
+            for (Subscriber subscriber: pageSubscribers) {
+                subscriber.offer(HEARTBEAT);
+            }
+        }
+    }
+
+    private void unsubscribe(Subscriber subscriber) {
+        Set<Subscriber> pageSubscribers = subscribers.get(subscriber.page);
+        if (pageSubscribers != null) {
+            pageSubscribers.remove(subscriber);
+        }
+    }
+
+    /** The latest events of a page */
+    private static final class History {
+
+        /** Oldest first; guarded by this */
+        private final ArrayDeque<Event> events = new ArrayDeque<>();
+        /** Id of the newest event dropped from the history */
+        private long droppedId;
+
+        synchronized void add(Event event) {
+            events.addLast(event);
+            if (events.size() > HISTORY_SIZE) {
+                droppedId = events.removeFirst().id;
+            }
+        }
+
+        synchronized List<Event> getAfter(long lastEventId) {
+            List<Event> missed = new ArrayList<>();
+            if (lastEventId < droppedId) {
+                missed.add(new Event(events.peekLast().id, "reset", null,
+                    null));
+                return missed;
+            }
+            for (Event event: events) {
+                if (event.id > lastEventId) {
+                    missed.add(event);
+                }
+            }
+            return missed;
+        }
+    }
+
+    /** A change to a page, serialized per viewer when sent */
+    private static final class Event {
+
+        private final long id;
+        private final String type;
+        private final Comment comment;
+        private final String deletedId;
+
+        Event(long id, String type, Comment comment, String deletedId) {
+            this.id = id;
+            this.type = type;
+            this.comment = comment;
+            this.deletedId = deletedId;
+        }
+
+        byte[] serialize(String viewerEmail) {
+            String data;
+            if (comment != null) {
+                data = GSON.toJson(comment.forViewer(viewerEmail));
+            } else {
+                JsonObject object = new JsonObject();
+                if (deletedId != null) {
+                    object.addProperty("id", deletedId);
+                }
+                data = object.toString();
+            }
+            return ("id: " + id + "\nevent: " + type + "\ndata: " + data
+                + "\n\n").getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * One open stream. Events are queued by publishers and written whenever
+     * the connection can take them without blocking.
+     */
+    private final class Subscriber implements WriteListener, AsyncListener {
+
+        private final String page;
+        private final String viewerEmail;
+        private final AsyncContext context;
+        /** Events not yet written; guarded by this */
+        private final Queue<byte[]> queue = new ArrayDeque<>();
+        private ServletOutputStream out;
+        private boolean needsFlush;
+        private boolean closed;
+
+        Subscriber(String page, String viewerEmail, AsyncContext context) {
+            this.page = page;
+            this.viewerEmail = viewerEmail;
+            this.context = context;
+        }
+
+        /**
+         * Queues an event and writes what the connection can take.
+         * Disconnects the client if it is too far behind.
+         */
+        void offer(byte[] event) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                if (queue.size() >= MAX_QUEUED_EVENTS) {
+                    droppedSubscribers.incrementAndGet();
+                    System.err.println("Dropping a slow comment stream of "
+                        + page);
+                } else {
+                    queue.add(event);
+                    if (out != null) {
+                        drain();
+                    }
+                    return;
+                }
+            }
+            close();
+        }
+
+        @Override
+        public void onWritePossible() throws IOException {
+            synchronized (this) {
+                if (out == null) {
+                    out = context.getResponse().getOutputStream();
+                }
+                drain();
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            close();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            unsubscribe(this);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            close();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            close();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+
+        /** Writes queued events until the connection would block. */
+        private void drain() {
+            try {
+                while (!closed && out.isReady()) {
+                    byte[] event = queue.poll();
+                    if (event != null) {
+                        out.write(event);
+                        needsFlush = true;
+                    } else if (needsFlush) {
+                        needsFlush = false;
+                        out.flush();
+                    } else {
+                        return;
+                    }
+                }
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                queue.clear();
+            }
+            unsubscribe(this);
+            try {
+                context.complete();
+            } catch (IllegalStateException e) {
+                // Already completed by the container.
+            }
+        }
+    }
+}
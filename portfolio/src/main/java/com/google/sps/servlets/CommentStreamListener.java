@@ -0,0 +1,23 @@
+package com.google.sps.servlets;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+
+/**
+ * Starts the heartbeats of the comment streams and closes the streams on
+ * shutdown.
+ */
+@WebListener
+public class CommentStreamListener implements ServletContextListener {
+
+    @Override
+    public void contextInitialized(ServletContextEvent event) {
+        CommentStream.getInstance().start();
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent event) {
+        CommentStream.getInstance().stop();
+    }
+}
@@ -0,0 +1,72 @@
+package com.google.sps.servlets;
+
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import java.io.IOException;
+import javax.servlet.AsyncContext;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Streams the comments posted to and deleted from a page as Server-Sent
+ * Events: "comment" with the comment, "update" with a comment that changed,
+ * such as when its image is ready, "delete" with its id, "clear" when
+ * all of them were deleted and "reset" when the client missed too much and
+ * should fetch the comments again.
+ *
+ * Answers 204 No Content, which makes browsers stop reconnecting, unless
+ * streaming is enabled with the comments.stream system property.
+ */
+@WebServlet(urlPatterns = "/data/stream", asyncSupported = true)
+public class CommentStreamServlet extends HttpServlet {
+
+    /**
+     * Streams end before the App Engine request deadline; browsers
+     * reconnect and resume from the last event they received.
+     */
+    static final long STREAM_TIMEOUT_MILLIS = 50000;
+
+    @Override
+    public void doGet(HttpServletRequest request, HttpServletResponse response)
+    throws IOException {
+        if (!CommentStream.getInstance().isEnabled()) {
+            response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+            return;
+        }
+
+        String page = request.getParameter("page");
+        if (page == null || page.isEmpty()) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                "Missing page");
+            return;
+        }
+
+        Long lastEventId = null;
+        String lastEventIdStr = request.getHeader("Last-Event-ID");
+        if (lastEventIdStr != null && !lastEventIdStr.isEmpty()) {
+            try {
+                lastEventId = Long.parseLong(lastEventIdStr);
+            } catch (NumberFormatException e) {
+                System.err.println("Could not convert to long: " +
+                    lastEventIdStr);
+            }
+        }
+
+        String currentUserEmail = null;
+        UserService userService = UserServiceFactory.getUserService();
+        if (userService.getCurrentUser() != null) {
+            currentUserEmail = userService.getCurrentUser().getEmail();
+        }
+
+        response.setContentType("text/event-stream");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+
+        AsyncContext context = request.startAsync();
+        context.setTimeout(STREAM_TIMEOUT_MILLIS);
+        CommentStream.getInstance().subscribe(page, currentUserEmail,
+            lastEventId, context);
+    }
+}
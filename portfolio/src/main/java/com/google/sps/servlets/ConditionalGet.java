@@ -0,0 +1,71 @@
+package com.google.sps.servlets;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Helpers for answering conditional GET requests with 304 Not Modified.
+ */
+final class ConditionalGet {
+
+    private ConditionalGet() {
+    }
+
+    /**
+     * Returns a strong entity tag that hashes all the parts the response
+     * depends on, so that no part, such as an email, shows up in the tag.
+     */
+    static String createETag(String... parts) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        for (String part: parts) {
+            digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+
+        StringBuilder etag = new StringBuilder("\"");
+        byte[] hash = digest.digest();
+        for (int i = 0; i < 16; i++) {
+            etag.append(String.format("%02x", hash[i]));
+        }
+        return etag.append('"').toString();
+    }
+
+    /**
+     * Sets the validators of the response and returns true, after sending
+     * 304 Not Modified, if the client already has this version.
+     */
+    static boolean isNotModified(HttpServletRequest request,
+        HttpServletResponse response, String etag) {
+        response.setHeader("ETag", etag);
+        // Responses depend on the viewer, so only the browser may keep them.
+        response.setHeader("Cache-Control", "private, no-cache");
+
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch == null || !matches(ifNoneMatch, etag)) {
+            return false;
+        }
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        return true;
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        for (String candidate: ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,70 @@
+package com.google.sps.servlets;
+
+import com.google.sps.data.CountRebuilds;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.gson.Gson;
+import java.io.IOException;
+import java.util.Map;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Starts a rebuild of a page's comment and emotion counts on POST, for
+ * admins, and reports the progress of a rebuild on GET. Run it when the
+ * counts have drifted, such as after writes that raced with an earlier
+ * rebuild.
+ */
+@WebServlet("/tasks/count-rebuilds")
+public class CountRebuildServlet extends HttpServlet {
+
+    @Override
+    public void doPost(HttpServletRequest request, HttpServletResponse response)
+    throws IOException {
+        if (!isAdmin()) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+        String page = request.getParameter("page");
+        if (page == null || page.isEmpty()) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                "Missing page");
+            return;
+        }
+
+        CountRebuilds rebuilds = CountRebuilds.getInstance();
+        String id = rebuilds.start(page);
+        response.setStatus(HttpServletResponse.SC_ACCEPTED);
+        writeStatus(response, rebuilds.getStatus(id));
+    }
+
+    @Override
+    public void doGet(HttpServletRequest request, HttpServletResponse response)
+    throws IOException {
+        if (!isAdmin()) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+        String id = request.getParameter("rebuild");
+        Map<String, Object> status = id == null ? null
+            : CountRebuilds.getInstance().getStatus(id);
+        if (status == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        writeStatus(response, status);
+    }
+
+    private static boolean isAdmin() {
+        UserService userService = UserServiceFactory.getUserService();
+        return userService.isUserLoggedIn() && userService.isUserAdmin();
+    }
+
+    private void writeStatus(HttpServletResponse response,
+        Map<String, Object> status) throws IOException {
+        response.setContentType("application/json;");
+        response.getWriter().println(new Gson().toJson(status));
+    }
+}
@@ -0,0 +1,59 @@
+package com.google.sps.servlets;
+
+import com.google.sps.data.CountRebuilds;
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Task Queue handler that runs the next chunk of a count rebuild. A failed
+ * chunk answers 500, so Task Queue retries it, until MAX_RETRIES retries
+ * have failed.
+ */
+@WebServlet(CountRebuilds.TASK_URL)
+public class CountRebuildTaskServlet extends HttpServlet {
+
+    static final int MAX_RETRIES = 5;
+    private static final String RETRY_COUNT_HEADER =
+        "X-AppEngine-TaskRetryCount";
+
+    @Override
+    public void doPost(HttpServletRequest request, HttpServletResponse response)
+    throws IOException {
+        String id = request.getParameter("rebuild");
+        long chunk;
+        try {
+            chunk = Long.parseLong(request.getParameter("chunk"));
+        } catch (NumberFormatException e) {
+            // Nothing to do; answering an error would only retry the task.
+            return;
+        }
+        if (id == null) {
+            return;
+        }
+
+        CountRebuilds rebuilds = CountRebuilds.getInstance();
+        try {
+            rebuilds.runChunk(id, chunk);
+        } catch (RuntimeException e) {
+            System.err.println("Could not rebuild counts in " + id + ": "
+                + e.getMessage());
+            if (getRetryCount(request) < MAX_RETRIES) {
+                response.sendError(
+                    HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                return;
+            }
+            rebuilds.fail(id, e.getMessage());
+        }
+    }
+
+    private static int getRetryCount(HttpServletRequest request) {
+        try {
+            return Integer.parseInt(request.getHeader(RETRY_COUNT_HEADER));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -15,40 +15,31 @@
 package com.google.sps.servlets;
 
 import com.google.sps.data.Comment;
-import com.google.appengine.api.blobstore.BlobInfo;
-import com.google.appengine.api.blobstore.BlobInfoFactory;
+import com.google.sps.data.CommentRepositories;
+import com.google.sps.data.PageVersions;
+import com.google.sps.data.PendingComment;
 import com.google.appengine.api.blobstore.BlobKey;
 import com.google.appengine.api.blobstore.BlobstoreService;
 import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
-import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
-import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.PreparedQuery;
-import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.Query.SortDirection;
-import com.google.appengine.api.datastore.Query.Filter;
-import com.google.appengine.api.datastore.Query.FilterOperator;
-import com.google.appengine.api.datastore.Query.FilterPredicate;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
-import com.google.appengine.api.blobstore.BlobInfo;
-import com.google.appengine.api.blobstore.BlobInfoFactory;
 import com.google.appengine.api.blobstore.BlobKey;
 import com.google.appengine.api.blobstore.BlobstoreService;
 import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
-import com.google.appengine.api.images.ImagesService;
-import com.google.appengine.api.images.ImagesServiceFactory;
-import com.google.appengine.api.images.ServingUrlOptions;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
-import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
 import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Date;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -57,72 +48,129 @@ import javax.servlet.http.HttpServletResponse;
 @WebServlet("/data")
 public class DataServlet extends HttpServlet {
 
-    private List<Comment> comments;
     static final int DEFAULT_COMMENTS_NUMBER = 5;
+    static final int MAX_COMMENTS_NUMBER = 100;
+    static final int MAX_PAGES = 10;
+    /** Too Many Requests; javax.servlet-api 3.1 has no constant for it */
+    static final int SC_TOO_MANY_REQUESTS = 429;
 
     @Override
     public void doGet(HttpServletRequest request, HttpServletResponse response)
     throws IOException {
-        int maxNumComments = 0;
-        String maxNumCommentsStr = request.getParameter("comments-number");
-        if (maxNumCommentsStr.isEmpty()) {
-            maxNumComments = DEFAULT_COMMENTS_NUMBER;
-        } else {
-            try {
-                maxNumComments = Integer.parseInt(maxNumCommentsStr);
-            } catch (NumberFormatException e) {
-                System.err.println("Could not convert to int: " +
-                    maxNumCommentsStr);
-            }
-        }
+        int maxNumComments = CommentFeed.parseLimit(
+            request.getParameter("comments-number"), DEFAULT_COMMENTS_NUMBER,
+            MAX_COMMENTS_NUMBER);
 
         String page = request.getParameter("page");
 
+        String cursorStr = request.getParameter("cursor");
+        if (cursorStr != null && cursorStr.isEmpty()) {
+            cursorStr = null;
+        }
+
         String currentUserEmail = null;
         UserService userService = UserServiceFactory.getUserService();
         if (userService.getCurrentUser() != null) {
             currentUserEmail = userService.getCurrentUser().getEmail();
         }
 
-        Query query = new Query("Comment-" + page)
-            .addSort("date", SortDirection.DESCENDING);
-        DatastoreService datastore = DatastoreServiceFactory
-            .getDatastoreService();
-        PreparedQuery results = datastore.prepare(query);
-
-        comments = new ArrayList<>();
-        String userName, userEmail, text, emotion, id, imageUrl;
-        Date date;
-        boolean isAbleToDelete = false;
-        for (Entity entity: results.asIterable()) {
-            try {
-                userName = (String) entity.getProperty("userName");
-                userEmail = (String) entity.getProperty("userEmail");
-                text = (String) entity.getProperty("text");
-                date = (Date) entity.getProperty("date");
-                emotion = (String) entity.getProperty("emotion");
-                id = (String) entity.getProperty("uuid");
-                if (currentUserEmail != null && userEmail.equals(currentUserEmail)) {
-                    isAbleToDelete = true;
-                } else {
-                    isAbleToDelete = false;
-                }
-                imageUrl = (String) entity.getProperty("imageUrl");
-            } catch (ClassCastException e) {
-                System.err.println("Could not cast entry property");
-                break;
+        String[] pageValues = request.getParameterValues("page");
+        if (pageValues != null && pageValues.length > 1) {
+            Set<String> pages = new LinkedHashSet<>(Arrays.asList(pageValues));
+            if (pages.size() > MAX_PAGES) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                    "At most " + MAX_PAGES + " pages per request");
+                return;
+            }
+            if (cursorStr != null) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                    "A cursor needs a single page");
+                return;
             }
+            getPages(pages, maxNumComments, currentUserEmail, request,
+                response);
+            return;
+        }
+
+        // The version changes with every write to the page, so a matching
+        // tag is answered without touching Datastore.
+        String etag = ConditionalGet.createETag(
+            PageVersions.getInstance().get(page),
+            String.valueOf(maxNumComments), cursorStr, currentUserEmail);
+        if (ConditionalGet.isNotModified(request, response, etag)) {
+            return;
+        }
+
+        CommentFeed feed;
+        try {
+            feed = CommentFeed.open(page, maxNumComments, cursorStr);
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                "Invalid cursor");
+            return;
+        }
 
-            comments.add(new Comment(text, userName, userEmail, date,
-                emotion, isAbleToDelete, id, imageUrl));
-            maxNumComments--;
-            if (maxNumComments <= 0) break;
+        response.setContentType("application/json;");
+        JsonWriter writer = new JsonWriter(response.getWriter());
+        writer.beginObject();
+        writer.name("comments");
+        writer.beginArray();
+        String nextCursor = feed.write(writer, currentUserEmail);
+        writer.endArray();
+        writer.name("cursor").value(nextCursor);
+        writer.endObject();
+        writer.flush();
+    }
+
+    /**
+     * Returns the first batch of comments of each page, as
+     * {"pages": {page: {"comments": [...], "cursor": ...}}}. The queries of
+     * all pages are started before any batch is written, so they run
+     * concurrently; later batches are fetched a page at a time.
+     */
+    private void getPages(Set<String> pages, int maxNumComments,
+        String currentUserEmail, HttpServletRequest request,
+        HttpServletResponse response) throws IOException {
+        List<String> etagParts = new ArrayList<>();
+        PageVersions versions = PageVersions.getInstance();
+        for (String page: pages) {
+            etagParts.add(page);
+            etagParts.add(versions.get(page));
+        }
+        etagParts.add(String.valueOf(maxNumComments));
+        etagParts.add(currentUserEmail);
+        String etag = ConditionalGet.createETag(
+            etagParts.toArray(new String[0]));
+        if (ConditionalGet.isNotModified(request, response, etag)) {
+            return;
         }
 
-        Gson gson = new Gson();
+        Map<String, CommentFeed> feeds = new LinkedHashMap<>();
+        for (String page: pages) {
+            feeds.put(page, CommentFeed.open(page, maxNumComments, null));
+        }
 
         response.setContentType("application/json;");
-        response.getWriter().println(gson.toJson(comments));
+        JsonWriter writer = new JsonWriter(response.getWriter());
+        writer.beginObject();
+        writer.name("pages");
+        writer.beginObject();
+        for (Map.Entry<String, CommentFeed> feed: feeds.entrySet()) {
+            writer.name(feed.getKey());
+            writer.beginObject();
+            writer.name("comments");
+            writer.beginArray();
+            String nextCursor = feed.getValue().write(writer,
+                currentUserEmail);
+            writer.endArray();
+            writer.name("cursor").value(nextCursor);
+            writer.endObject();
+            // Each page is sent as soon as it is written.
+            writer.flush();
+        }
+        writer.endObject();
+        writer.endObject();
+        writer.flush();
     }
 
     @Override
@@ -136,26 +184,119 @@ public class DataServlet extends HttpServlet {
 
         UserService userService = UserServiceFactory.getUserService();
         String userEmail = userService.getCurrentUser().getEmail();
-        String imageUrl = getUploadedFileUrl(request, "image");
-      
-        UUID id = UUID.randomUUID();
-        while (collides(id, page)) {
-            id = UUID.randomUUID();
-
-        Entity commentEntity = new Entity("Comment-" + page);
-        commentEntity.setProperty("userEmail", userEmail);
-        commentEntity.setProperty("userName", userName);
-        commentEntity.setProperty("text", text);
-        commentEntity.setProperty("date", date);
-        commentEntity.setProperty("emotion", emotion);
-        commentEntity.setProperty("imageUrl", imageUrl);
-        commentEntity.setProperty("uuid", id.toString());
-
-        DatastoreService datastore = DatastoreServiceFactory
-            .getDatastoreService();
-        datastore.put(commentEntity);
-
-        response.sendRedirect("/" + page);
+        BlobKey imageKey = getUploadedBlobKey(request, "image");
+
+        // A post sent again gets the original redirect, or a conflict while
+        // the original is in flight, and its copy of the upload is deleted.
+        String idempotencyKey = getIdempotencyKey(request);
+        IdempotencyKeys idempotencyKeys = IdempotencyKeys.getInstance();
+        if (idempotencyKey != null) {
+            IdempotencyKeys.Post original = idempotencyKeys.begin(userEmail,
+                idempotencyKey, page);
+            if (original != null) {
+                if (imageKey != null) {
+                    BlobstoreServiceFactory.getBlobstoreService()
+                        .delete(imageKey);
+                }
+                if (!original.isStored()) {
+                    response.setHeader("Retry-After", "1");
+                    response.sendError(HttpServletResponse.SC_CONFLICT,
+                        "A post with this key is in progress");
+                    return;
+                }
+                response.sendRedirect("/" + original.getPage());
+                return;
+            }
+        }
+
+        // A post that stored nothing may be retried with the same key.
+        boolean stored = false;
+        try {
+            stored = storeComment(page, userName, userEmail, text, emotion,
+                date, imageKey, response);
+        } finally {
+            if (!stored && idempotencyKey != null) {
+                idempotencyKeys.abandon(userEmail, idempotencyKey);
+            }
+        }
+        if (stored) {
+            if (idempotencyKey != null) {
+                idempotencyKeys.complete(userEmail, idempotencyKey, page);
+            }
+            response.sendRedirect("/" + page);
+        }
+    }
+
+    /**
+     * Stores the comment, unless the user is over the post rate limit.
+     * Returns whether the comment was stored.
+     */
+    private boolean storeComment(String page, String userName, String userEmail,
+        String text, String emotion, Date date, BlobKey imageKey,
+        HttpServletResponse response) throws IOException {
+        // Rejected before any storage work. The upload is already stored by
+        // Blobstore, so it is deleted.
+        long waitNanos = PostRateLimiter.getInstance().tryAcquire(userEmail);
+        if (waitNanos > 0) {
+            if (imageKey != null) {
+                BlobstoreServiceFactory.getBlobstoreService().delete(imageKey);
+            }
+            long waitSeconds = (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1)
+                / TimeUnit.SECONDS.toNanos(1);
+            response.setHeader("Retry-After", String.valueOf(waitSeconds));
+            response.sendError(SC_TOO_MANY_REQUESTS,
+                "Too many comments, try again later");
+            return false;
+        }
+
+        // In write-behind mode the image gets its URLs in the background and
+        // is attached to the comment once they are ready.
+        WriteBehindQueue writeBehindQueue = WriteBehindQueue.getInstance();
+        if (writeBehindQueue.isEnabled()) {
+            String id = CommentRepositories.get().newId(page);
+            writeBehindQueue.enqueue(new PendingComment(page, id, userName,
+                userEmail, text, date, emotion, null));
+            if (imageKey != null) {
+                ImagePipeline.getInstance().submit(page, id, imageKey);
+            }
+            return true;
+        }
+
+        // Unless the image pipeline runs in the background, the image gets
+        // its URLs before the comment is stored, with them.
+        ImagePipeline pipeline = ImagePipeline.getInstance();
+        ImagePipeline.ServingUrls urls = null;
+        if (imageKey != null && !pipeline.isEnabled()) {
+            urls = pipeline.processNow(imageKey);
+        }
+
+        // The repository allocates the id, so the put is the only round-trip.
+        Comment comment = new Comment(text, userName, userEmail, date, emotion,
+            false, null, urls == null ? null : urls.getImageUrl(),
+            urls == null ? null : urls.getThumbnailUrl());
+        Comment saved = CommentRepositories.get()
+            .save(page, Collections.singletonList(comment)).get(0);
+        CommentChanges.commentAdded(page, saved);
+        if (imageKey != null && pipeline.isEnabled()) {
+            pipeline.submit(page, saved.getId(), imageKey);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the Idempotency-Key header, or the form field of the same
+     * name, or null if the post has none or it is too long.
+     */
+    private String getIdempotencyKey(HttpServletRequest request) {
+        String key = request.getHeader(IdempotencyKeys.HEADER);
+        if (key == null || key.isEmpty()) {
+            key = request.getParameter(IdempotencyKeys.PARAMETER);
+        }
+        if (key == null || key.isEmpty()
+            || key.length() > IdempotencyKeys.MAX_KEY_LENGTH) {
+            return null;
+        }
+        return key;
     }
 
     /**
@@ -170,10 +311,11 @@ public class DataServlet extends HttpServlet {
         return value;
     }
 
-    /** Returns a URL that points to the uploaded file, or null if the user
-     * didn't upload a file. 
+    /** Returns the key of the uploaded file, or null if the user didn't
+     * upload a file. An empty upload on the live server is only detected
+     * by the image pipeline.
      */
-    private String getUploadedFileUrl(HttpServletRequest request,
+    private BlobKey getUploadedBlobKey(HttpServletRequest request,
         String formInputElementName) {
         BlobstoreService blobstoreService = BlobstoreServiceFactory
             .getBlobstoreService();
@@ -185,48 +327,6 @@ public class DataServlet extends HttpServlet {
             return null;
         }
 
-        BlobKey blobKey = blobKeys.get(0);
-
-        // User submitted form without selecting a file, so we can't get a URL. (live server)
-        BlobInfo blobInfo = new BlobInfoFactory().loadBlobInfo(blobKey);
-        if (blobInfo.getSize() == 0) {
-            blobstoreService.delete(blobKey);
-            return null;
-        }
-
-        ImagesService imagesService = ImagesServiceFactory.getImagesService();
-        ServingUrlOptions options = ServingUrlOptions.Builder.withBlobKey(blobKey);
-
-        try {
-            URL url = new URL(imagesService.getServingUrl(options));
-            return url.getPath();
-        } catch (MalformedURLException e) {
-            // TODO: Create a blob serving servlet instead to work when deployed on GCP
-            System.err.println("Could not get relative path to file");
-            return imagesService.getServingUrl(options);
-        }
-    }
-      
-    /**
-     * Checks if the id collides with other ids in datastore
-     */
-    private boolean collides(UUID id, String page) {
-        Query query = new Query("Comment-" + page);
-
-        Filter uuidPropertyFilter = new FilterPredicate("uuid",
-            FilterOperator.EQUAL, id.toString());
-        query.setFilter(uuidPropertyFilter);
-        DatastoreService datastore = DatastoreServiceFactory
-            .getDatastoreService();
-        PreparedQuery results = datastore.prepare(query);
-
-        for (Entity entity: results.asIterable()) {
-            String entityId = (String) entity.getProperty("uuid");
-            if (entityId.equals(id.toString())) {
-                return true;
-            }
-        }
-
-        return false;
+        return blobKeys.get(0);
     }
 }
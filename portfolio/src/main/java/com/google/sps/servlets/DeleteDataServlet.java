@@ -1,24 +1,13 @@
 package com.google.sps.servlets;
 
-import com.google.sps.data.Comment;
-import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
-import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.Key;
-import com.google.appengine.api.datastore.KeyFactory;
-import com.google.appengine.api.datastore.PreparedQuery;
-import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.Query.SortDirection;
-import com.google.appengine.api.datastore.Query.Filter;
-import com.google.appengine.api.datastore.Query.FilterOperator;
-import com.google.appengine.api.datastore.Query.FilterPredicate;
-import com.google.appengine.api.datastore.Query.CompositeFilter;
-import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
+import com.google.sps.data.CommentRepositories;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
+import com.google.gson.Gson;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -32,25 +21,50 @@ public class DeleteDataServlet extends HttpServlet {
     throws IOException {
         String page = request.getParameter("page");
         String id = request.getParameter("id");
-        Query query = new Query("Comment-" + page);
 
-        if (!id.equals("undefined")) {
-            Filter uuidPropertyFilter = new FilterPredicate("uuid",
-                FilterOperator.EQUAL, id);
-            query.setFilter(uuidPropertyFilter);
+        if (id == null || id.equals("undefined")) {
+            deletePage(page, response);
+            return;
         }
 
-        DatastoreService datastore = DatastoreServiceFactory
-            .getDatastoreService();
-        PreparedQuery results = datastore.prepare(query);
-
-        List<Key> keys = new ArrayList<>();
-        for (Entity entity: results.asIterable()) {
-            keys.add(entity.getKey());
+        WriteBehindQueue writeBehindQueue = WriteBehindQueue.getInstance();
+        if (writeBehindQueue.isEnabled()) {
+            writeBehindQueue.remove(id);
         }
 
-        datastore.delete(keys);
+        CommentRepositories.get().delete(page, id);
+        CommentChanges.commentsRemoved(page, Collections.singletonList(id));
         response.setContentType("text/plain");
         response.getWriter().println("");
     }
+
+    /**
+     * Deletes the first chunk of the page's comments within the request.
+     * If more are left, the rest is deleted by a chain of Task Queue tasks
+     * whose status URL is returned with 202 Accepted.
+     */
+    private void deletePage(String page, HttpServletResponse response)
+        throws IOException {
+        WriteBehindQueue writeBehindQueue = WriteBehindQueue.getInstance();
+        if (writeBehindQueue.isEnabled()) {
+            writeBehindQueue.removePage(page);
+        }
+        CommentChanges.pageCleared(page);
+
+        BulkDeleteJob job = new BulkDeleteJob(page);
+        if (!job.deleteChunk()) {
+            response.setContentType("text/plain");
+            response.getWriter().println("");
+            return;
+        }
+
+        BulkDeleteJobs.getInstance().submit(job);
+        Map<String, String> accepted = new LinkedHashMap<>();
+        accepted.put("job", job.getId());
+        accepted.put("status", "/delete-data/status?job=" + job.getId());
+
+        response.setStatus(HttpServletResponse.SC_ACCEPTED);
+        response.setContentType("application/json;");
+        response.getWriter().println(new Gson().toJson(accepted));
+    }
 }
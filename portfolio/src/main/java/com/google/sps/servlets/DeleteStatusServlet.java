@@ -0,0 +1,53 @@
+package com.google.sps.servlets;
+
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.gson.Gson;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Reports the progress of a bulk delete started by /delete-data, to admins.
+ */
+@WebServlet("/delete-data/status")
+public class DeleteStatusServlet extends HttpServlet {
+
+    @Override
+    public void doGet(HttpServletRequest request, HttpServletResponse response)
+    throws IOException {
+        UserService userService = UserServiceFactory.getUserService();
+        if (!userService.isUserLoggedIn() || !userService.isUserAdmin()) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+
+        String jobId = request.getParameter("job");
+        BulkDeleteJob job = jobId == null ? null
+            : BulkDeleteJobs.getInstance().get(jobId);
+        if (job == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("job", job.getId());
+        status.put("page", job.getPage());
+        status.put("state", job.getState().name().toLowerCase());
+        status.put("deleted", job.getDeleted());
+        status.put("startedMillis", job.getStartedMillis());
+        if (job.getState() != BulkDeleteJob.State.RUNNING) {
+            status.put("finishedMillis", job.getFinishedMillis());
+        }
+        if (job.getError() != null) {
+            status.put("error", job.getError());
+        }
+
+        response.setContentType("application/json;");
+        response.getWriter().println(new Gson().toJson(status));
+    }
+}
@@ -0,0 +1,62 @@
+package com.google.sps.servlets;
+
+import com.google.sps.data.CommentRepositories;
+import com.google.sps.data.EmotionCounts;
+import com.google.gson.Gson;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Returns how many comments of a page have each emotion, in total and for
+ * each of the last days, e.g. {"page": "career.html", "total": {"happy": 3},
+ * "days": [{"date": "2020-06-01", "emotions": {"happy": 1}}]}.
+ * Days without comments are left out.
+ */
+@WebServlet("/data/emotions")
+public class EmotionsServlet extends HttpServlet {
+
+    static final int DEFAULT_DAYS = 30;
+    static final int MAX_DAYS = 366;
+
+    @Override
+    public void doGet(HttpServletRequest request, HttpServletResponse response)
+    throws IOException {
+        String page = request.getParameter("page");
+        if (page == null || page.isEmpty()) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                "Missing page");
+            return;
+        }
+        int days = CommentFeed.parseLimit(request.getParameter("days"),
+            DEFAULT_DAYS, MAX_DAYS);
+
+        LocalDate from = LocalDate.now(ZoneOffset.UTC).minusDays(days - 1);
+        EmotionCounts counts =
+            CommentRepositories.get().getEmotionCounts(page, from);
+        List<Map<String, Object>> dayCounts = new ArrayList<>();
+        for (Map.Entry<LocalDate, Map<String, Long>> day:
+            counts.getDays().entrySet()) {
+            Map<String, Object> dayCount = new LinkedHashMap<>();
+            dayCount.put("date", day.getKey().toString());
+            dayCount.put("emotions", day.getValue());
+            dayCounts.add(dayCount);
+        }
+
+        Map<String, Object> emotions = new LinkedHashMap<>();
+        emotions.put("page", page);
+        emotions.put("total", counts.getTotals());
+        emotions.put("days", dayCounts);
+
+        response.setContentType("application/json;");
+        response.getWriter().println(new Gson().toJson(emotions));
+    }
+}
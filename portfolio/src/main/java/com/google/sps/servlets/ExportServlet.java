@@ -0,0 +1,102 @@
+package com.google.sps.servlets;
+
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentIterator;
+import com.google.sps.data.CommentRepositories;
+import com.google.sps.data.CommentRepository;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Streams the stored comments of a page as newline-delimited JSON, newest
+ * first, for admins. Comments are read and written a batch at a time, and
+ * every batch is followed by a checkpoint with the cursor of the next one
+ * and the throughput so far. An export that ends with a checkpoint, as
+ * one that runs out of time does, is resumed by passing its cursor.
+ */
+@WebServlet("/data/export")
+public class ExportServlet extends HttpServlet {
+
+    static final int BATCH_SIZE = 500;
+
+    @Override
+    public void doGet(HttpServletRequest request, HttpServletResponse response)
+    throws IOException {
+        UserService userService = UserServiceFactory.getUserService();
+        if (!userService.isUserLoggedIn() || !userService.isUserAdmin()) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+
+        String page = request.getParameter("page");
+        if (page == null || page.isEmpty()) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                "Missing page");
+            return;
+        }
+        String cursor = request.getParameter("cursor");
+        if (cursor != null && cursor.isEmpty()) {
+            cursor = null;
+        }
+
+        CommentRepository repository = CommentRepositories.get();
+        CommentIterator results;
+        try {
+            results = repository.query(page, BATCH_SIZE, cursor);
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                "Invalid cursor");
+            return;
+        }
+
+        response.setContentType(CommentRecords.CONTENT_TYPE);
+        response.setCharacterEncoding("UTF-8");
+        PrintWriter writer = response.getWriter();
+        long startNanos = System.nanoTime();
+        long exported = 0;
+        while (true) {
+            int count = 0;
+            while (results.hasNext()) {
+                // Counted even if unreadable, so the batch is not taken for
+                // the last one.
+                count++;
+                Comment comment;
+                try {
+                    comment = results.next();
+                } catch (ClassCastException e) {
+                    System.err.println("Could not cast entry property");
+                    continue;
+                }
+                writer.println(CommentRecords.toLine(comment));
+                exported++;
+            }
+
+            // A short batch means the end of the page was reached.
+            cursor = count < BATCH_SIZE ? null : results.getCursor();
+            Map<String, Object> progress = new LinkedHashMap<>();
+            progress.put("exported", exported);
+            progress.put("commentsPerSecond",
+                CommentRecords.getPerSecond(exported, startNanos));
+            if (cursor == null) {
+                writer.println(CommentRecords.toLine("done", progress));
+                break;
+            }
+            progress.put("cursor", cursor);
+            writer.println(CommentRecords.toLine("checkpoint", progress));
+            writer.flush();
+            if (CommentRecords.isOutOfTime(startNanos)) {
+                break;
+            }
+            results = repository.query(page, BATCH_SIZE, cursor);
+        }
+        writer.flush();
+    }
+}
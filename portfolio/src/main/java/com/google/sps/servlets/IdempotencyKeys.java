@@ -0,0 +1,127 @@
+package com.google.sps.servlets;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the comment posts made with an Idempotency-Key, so a post
+ * that is sent again, as when a flaky connection makes the browser retry
+ * the form, gets the original result instead of storing the comment twice.
+ *
+ * Keys live in memcache, so a retry that reaches another instance is
+ * recognized too. A key is added only if it is not present, so of two
+ * posts with the same key only one goes ahead. It is kept for
+ * IN_FLIGHT_MILLIS while its post runs, and for TTL_MILLIS once the
+ * comment is stored. Keys are scoped to the posting user. If memcache
+ * fails or evicts a key, a post with it is stored again.
+ */
+final class IdempotencyKeys {
+
+    static final String HEADER = "Idempotency-Key";
+    static final String PARAMETER = "idempotency-key";
+    static final int MAX_KEY_LENGTH = 128;
+    static final long TTL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    /** Longer than a request may run, so a crashed post is forgotten */
+    static final long IN_FLIGHT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final String KEY_PREFIX = "IdempotencyKeys:";
+    private static final String IN_FLIGHT = "in-flight\n";
+    private static final String STORED = "stored\n";
+    private static final IdempotencyKeys INSTANCE = new IdempotencyKeys();
+
+    private final MemcacheService memcache =
+        MemcacheServiceFactory.getMemcacheService();
+    private final AtomicLong replays = new AtomicLong();
+
+    static IdempotencyKeys getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts a post of the user to the page with the key. Returns null if
+     * the key is new, or else the post that was first made with it, which
+     * may still be in flight.
+     */
+    Post begin(String userEmail, String key, String page) {
+        String scopedKey = scope(userEmail, key);
+        try {
+            // A key that expires between the add and the get is added again.
+            for (int attempt = 0; attempt < 2; attempt++) {
+                if (memcache.put(scopedKey, IN_FLIGHT + page,
+                    Expiration.byDeltaMillis((int) IN_FLIGHT_MILLIS),
+                    MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT)) {
+                    return null;
+                }
+                String value = (String) memcache.get(scopedKey);
+                if (value != null) {
+                    replays.incrementAndGet();
+                    return Post.parse(value);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Could not check the idempotency key: "
+                + e.getMessage());
+        }
+        return null;
+    }
+
+    /** Remembers that the post with the key stored its comment. */
+    void complete(String userEmail, String key, String page) {
+        try {
+            memcache.put(scope(userEmail, key), STORED + page,
+                Expiration.byDeltaMillis((int) TTL_MILLIS));
+        } catch (RuntimeException e) {
+            System.err.println("Could not store the idempotency key: "
+                + e.getMessage());
+        }
+    }
+
+    /** Forgets a post that stored nothing, so it can be retried. */
+    void abandon(String userEmail, String key) {
+        try {
+            memcache.delete(scope(userEmail, key));
+        } catch (RuntimeException e) {
+            System.err.println("Could not forget the idempotency key: "
+                + e.getMessage());
+        }
+    }
+
+    long getReplays() {
+        return replays.get();
+    }
+
+    private static String scope(String userEmail, String key) {
+        return KEY_PREFIX + userEmail + "\n" + key;
+    }
+
+    /** A post made with a key */
+    static final class Post {
+
+        private final String page;
+        private final boolean isStored;
+
+        Post(String page, boolean isStored) {
+            this.page = page;
+            this.isStored = isStored;
+        }
+
+        String getPage() {
+            return page;
+        }
+
+        /** Whether the post stored its comment, or is still in flight */
+        boolean isStored() {
+            return isStored;
+        }
+
+        static Post parse(String value) {
+            if (value.startsWith(STORED)) {
+                return new Post(value.substring(STORED.length()), true);
+            }
+            return new Post(value.substring(IN_FLIGHT.length()), false);
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package com.google.sps.servlets;
+
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentRepositories;
+import com.google.appengine.api.blobstore.BlobInfo;
+import com.google.appengine.api.blobstore.BlobInfoFactory;
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import com.google.appengine.api.images.ImagesService;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import com.google.appengine.api.images.ServingUrlOptions;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Turns the images uploaded with comments into serving URLs. Each upload
+ * gets a URL of the original and of a thumbnail that the Images service
+ * resizes on the fly.
+ *
+ * By default the posting request gets the URLs before it stores the
+ * comment. With the comments.imagePipeline system property, or in
+ * write-behind mode, they are fetched in the background instead, so a post
+ * does not wait for Blobstore and the Images service, and are then written
+ * to the stored comment. Like the write-behind queue, that needs an
+ * environment that allows App Engine API calls outside of requests.
+ *
+ * At most QUEUE_CAPACITY uploads wait for a worker; past that an upload is
+ * processed by the posting request itself. A comment that is not stored yet,
+ * such as one still in the write-behind queue, is retried a few times; if
+ * it never shows up, it was deleted and the upload is deleted too.
+ */
+final class ImagePipeline {
+
+    static final String ENABLED_PROPERTY = "comments.imagePipeline";
+
+    static final int THREADS = 2;
+    static final int QUEUE_CAPACITY = 100;
+    static final int THUMBNAIL_SIZE = 200;
+    static final int MAX_WRITE_ATTEMPTS = 5;
+    static final long RETRY_DELAY_MILLIS = 2000;
+
+    private static final ImagePipeline INSTANCE =
+        new ImagePipeline(Boolean.getBoolean(ENABLED_PROPERTY));
+
+    /** The steps of processing an upload, timed separately */
+    enum Stage {
+        BLOB_INFO,
+        SERVING_URLS,
+        WRITE_BACK
+    }
+
+    private final boolean enabled;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService retries;
+
+    private final AtomicLong processedImages = new AtomicLong();
+    private final AtomicLong failedImages = new AtomicLong();
+    private final AtomicLong inlineImages = new AtomicLong();
+    private final Map<Stage, StageTimer> timers = new LinkedHashMap<>();
+
+    ImagePipeline(boolean enabled) {
+        this.enabled = enabled;
+        // Threads start with the first submitted upload.
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "image-pipeline");
+            thread.setDaemon(true);
+            return thread;
+        };
+        executor = new ThreadPoolExecutor(THREADS, THREADS, 0,
+            TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(QUEUE_CAPACITY),
+            threadFactory, (job, pool) -> {
+                if (pool.isShutdown()) {
+                    throw new RejectedExecutionException(
+                        "Image pipeline is stopped");
+                }
+                inlineImages.incrementAndGet();
+                job.run();
+            });
+        retries = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        for (Stage stage: Stage.values()) {
+            timers.put(stage, new StageTimer());
+        }
+    }
+
+    static ImagePipeline getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns whether uploads are processed in the background.
+     */
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Processes the image uploaded with the stored comment of the page in
+     * the background.
+     */
+    void submit(String page, String commentId, BlobKey blobKey) {
+        executor.execute(() -> process(page, commentId, blobKey));
+    }
+
+    /**
+     * Returns the serving URLs of the upload right away, for a comment that
+     * is not stored yet. Returns null, and deletes the upload, if it is
+     * empty or can't be processed.
+     */
+    ServingUrls processNow(BlobKey blobKey) {
+        try {
+            ServingUrls urls = getServingUrls(blobKey);
+            processedImages.incrementAndGet();
+            return urls;
+        } catch (RuntimeException e) {
+            failedImages.incrementAndGet();
+            System.err.println("Could not process image: " + e);
+            deleteBlob(blobKey);
+            return null;
+        }
+    }
+
+    /**
+     * Stops taking uploads and waits a little for the queued ones.
+     */
+    void stop() throws InterruptedException {
+        retries.shutdownNow();
+        executor.shutdown();
+        if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+            System.err.println("Dropping " + executor.getQueue().size()
+                + " queued images");
+            executor.shutdownNow();
+        }
+    }
+
+    int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    long getProcessedImages() {
+        return processedImages.get();
+    }
+
+    long getFailedImages() {
+        return failedImages.get();
+    }
+
+    long getInlineImages() {
+        return inlineImages.get();
+    }
+
+    Map<Stage, StageTimer> getTimers() {
+        return timers;
+    }
+
+    private void process(String page, String commentId, BlobKey blobKey) {
+        try {
+            ServingUrls urls = getServingUrls(blobKey);
+            if (urls == null) {
+                processedImages.incrementAndGet();
+                return;
+            }
+            writeBack(page, commentId, blobKey, urls, 1);
+        } catch (RuntimeException e) {
+            failedImages.incrementAndGet();
+            System.err.println("Could not process image of comment "
+                + commentId + ": " + e);
+            deleteBlob(blobKey);
+        }
+    }
+
+    /**
+     * Returns the serving URLs of the upload, or null, after deleting it, if
+     * it is empty.
+     */
+    private ServingUrls getServingUrls(BlobKey blobKey) {
+        // User submitted form without selecting a file (live server)
+        long start = System.nanoTime();
+        BlobInfo blobInfo = new BlobInfoFactory().loadBlobInfo(blobKey);
+        timers.get(Stage.BLOB_INFO).record(start);
+        if (blobInfo == null || blobInfo.getSize() == 0) {
+            BlobstoreServiceFactory.getBlobstoreService().delete(blobKey);
+            return null;
+        }
+
+        start = System.nanoTime();
+        ImagesService imagesService = ImagesServiceFactory.getImagesService();
+        String imageUrl = getServingUrl(imagesService,
+            ServingUrlOptions.Builder.withBlobKey(blobKey));
+        String thumbnailUrl = getServingUrl(imagesService,
+            ServingUrlOptions.Builder.withBlobKey(blobKey)
+                .imageSize(THUMBNAIL_SIZE));
+        timers.get(Stage.SERVING_URLS).record(start);
+        return new ServingUrls(imageUrl, thumbnailUrl);
+    }
+
+    /**
+     * Stores the image URLs in the comment, retrying later while the comment
+     * is not stored.
+     */
+    private void writeBack(String page, String commentId, BlobKey blobKey,
+        ServingUrls urls, int attempt) {
+        long start = System.nanoTime();
+        Comment saved = CommentRepositories.get().update(page, commentId,
+            comment -> comment.withImage(urls.getImageUrl(),
+                urls.getThumbnailUrl()));
+        if (saved == null) {
+            if (attempt < MAX_WRITE_ATTEMPTS) {
+                retries.schedule(() -> executor.execute(() -> {
+                    try {
+                        writeBack(page, commentId, blobKey, urls, attempt + 1);
+                    } catch (RuntimeException e) {
+                        failedImages.incrementAndGet();
+                        System.err.println("Could not store image of comment "
+                            + commentId + ": " + e);
+                        deleteBlob(blobKey);
+                    }
+                }), RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            } else {
+                deleteBlob(blobKey);
+                failedImages.incrementAndGet();
+                System.err.println("Comment " + commentId
+                    + " is gone, deleted its image");
+            }
+            return;
+        }
+
+        timers.get(Stage.WRITE_BACK).record(start);
+        processedImages.incrementAndGet();
+        CommentChanges.commentUpdated(page, saved);
+    }
+
+    /**
+     * Deletes an upload that no comment will show.
+     */
+    private static void deleteBlob(BlobKey blobKey) {
+        try {
+            BlobstoreServiceFactory.getBlobstoreService().delete(blobKey);
+        } catch (RuntimeException e) {
+            System.err.println("Could not delete image " + blobKey + ": " + e);
+        }
+    }
+
+    /**
+     * Returns the serving URL as a relative path, so it works on the dev
+     * server too.
+     */
+    private static String getServingUrl(ImagesService imagesService,
+        ServingUrlOptions options) {
+        String servingUrl = imagesService.getServingUrl(options);
+        try {
+            return new URL(servingUrl).getPath();
+        } catch (MalformedURLException e) {
+            // TODO: Create a blob serving servlet instead to work when deployed on GCP
+            System.err.println("Could not get relative path to file");
+            return servingUrl;
+        }
+    }
+
+    /** The serving URLs of an upload and of its thumbnail */
+    static final class ServingUrls {
+
+        private final String imageUrl;
+        private final String thumbnailUrl;
+
+        ServingUrls(String imageUrl, String thumbnailUrl) {
+            this.imageUrl = imageUrl;
+            this.thumbnailUrl = thumbnailUrl;
+        }
+
+        String getImageUrl() {
+            return imageUrl;
+        }
+
+        String getThumbnailUrl() {
+            return thumbnailUrl;
+        }
+    }
+
+    /** Count, total and maximum duration of a stage */
+    static final class StageTimer {
+
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long startNanos) {
+            long nanos = System.nanoTime() - startNanos;
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        long getCount() {
+            return count.get();
+        }
+
+        double getMeanMillis() {
+            long n = count.get();
+            return n == 0 ? 0 : totalNanos.get() / 1e6 / n;
+        }
+
+        double getMaxMillis() {
+            return maxNanos.get() / 1e6;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.google.sps.servlets;
+
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentRepositories;
+import com.google.sps.data.CommentRepository;
+import com.google.sps.data.CommentSubmission;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.gson.JsonParseException;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Imports newline-delimited JSON comments, such as the output of
+ * /data/export, into a page for admins. The body is read a line at a time
+ * and written with multi-entity puts of BatchDataServlet.PUT_CHUNK_SIZE
+ * comments, so memory does not grow with the body.
+ *
+ * Comments keep their exported id when it can belong to the page, so
+ * importing the same lines into the same page again replaces them instead
+ * of adding copies. Comments without one get a new id.
+ *
+ * The response is newline-delimited JSON too: an error line for every
+ * comment that can't be imported, and a checkpoint after every put with
+ * the number of lines handled so far. An import that ends with a
+ * checkpoint, as one that runs out of time does, is resumed by sending the
+ * same body with skip set to its line.
+ */
+@WebServlet("/data/import")
+public class ImportServlet extends HttpServlet {
+
+    @Override
+    public void doPost(HttpServletRequest request, HttpServletResponse response)
+    throws IOException {
+        UserService userService = UserServiceFactory.getUserService();
+        if (!userService.isUserLoggedIn() || !userService.isUserAdmin()) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+
+        String page = request.getParameter("page");
+        if (page == null || page.isEmpty()) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                "Missing page");
+            return;
+        }
+        long skip = 0;
+        String skipParameter = request.getParameter("skip");
+        if (skipParameter != null && !skipParameter.isEmpty()) {
+            try {
+                skip = Long.parseLong(skipParameter);
+            } catch (NumberFormatException e) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                    "Invalid skip");
+                return;
+            }
+        }
+
+        String importerEmail = userService.getCurrentUser().getEmail();
+        CommentRepository repository = CommentRepositories.get();
+        BufferedReader reader = request.getReader();
+        response.setContentType(CommentRecords.CONTENT_TYPE);
+        response.setCharacterEncoding("UTF-8");
+        PrintWriter writer = response.getWriter();
+
+        Progress progress = new Progress();
+        List<Comment> chunk = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            progress.line++;
+            if (progress.line <= skip || line.trim().isEmpty()) {
+                continue;
+            }
+
+            CommentRecords.CommentLine record;
+            try {
+                record = CommentRecords.parse(line);
+            } catch (JsonParseException e) {
+                progress.failed++;
+                writeError(writer, progress, "not a JSON object");
+                continue;
+            }
+            if (record == null) {
+                continue;
+            }
+            CommentSubmission submission = record.submission;
+            String error = submission.validate();
+            if (error != null) {
+                progress.failed++;
+                writeError(writer, progress, error);
+                continue;
+            }
+
+            String userEmail = submission.getUserEmail() == null
+                ? importerEmail : submission.getUserEmail();
+            Date date = submission.getDate() == null
+                ? new Date() : submission.getDate();
+            String id = repository.isValidId(page, record.id) ? record.id
+                : null;
+            chunk.add(new Comment(submission.getText(), submission.getAuthor(),
+                userEmail, date, submission.getEmotion(), false, id,
+                submission.getImageUrl(), submission.getThumbnailUrl()));
+
+            if (chunk.size() == BatchDataServlet.PUT_CHUNK_SIZE) {
+                putChunk(repository, page, chunk, writer, progress);
+                if (CommentRecords.isOutOfTime(progress.startNanos)) {
+                    // Every line so far is handled; skip resumes after it.
+                    writer.flush();
+                    return;
+                }
+            }
+        }
+        putChunk(repository, page, chunk, writer, progress);
+        writer.println(CommentRecords.toLine("done", progress.toMap()));
+        writer.flush();
+    }
+
+    /**
+     * Writes the chunk with a single put, reports a checkpoint and empties
+     * the chunk. A failed put is reported and the next chunk is still tried.
+     */
+    private void putChunk(CommentRepository repository, String page,
+        List<Comment> chunk, PrintWriter writer, Progress progress) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+
+        try {
+            CommentChanges.commentsAdded(page, repository.save(page, chunk));
+            progress.imported += chunk.size();
+        } catch (RuntimeException e) {
+            System.err.println("Could not write comment batch: "
+                + e.getMessage());
+            progress.failed += chunk.size();
+            writeError(writer, progress, "write of " + chunk.size()
+                + " comments failed");
+        }
+        chunk.clear();
+        writer.println(CommentRecords.toLine("checkpoint", progress.toMap()));
+        writer.flush();
+    }
+
+    private void writeError(PrintWriter writer, Progress progress,
+        String error) {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("line", progress.line);
+        report.put("error", error);
+        writer.println(CommentRecords.toLine("error", report));
+    }
+
+    /** How far an import got */
+    private static final class Progress {
+
+        private final long startNanos = System.nanoTime();
+        private long line;
+        private long imported;
+        private long failed;
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("line", line);
+            map.put("imported", imported);
+            map.put("failed", failed);
+            map.put("commentsPerSecond",
+                CommentRecords.getPerSecond(imported, startNanos));
+            return map;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.google.sps.servlets;
+
+import com.google.sps.data.Metrics;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRegistration;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Records the count, errors, in-flight requests and latency of every
+ * request by the URL pattern of its servlet and its method. Async requests
+ * are recorded when they complete.
+ *
+ * Servlet 3.1 doesn't tell which pattern a request matched, so the patterns
+ * of the registered servlets are read on init and the servlet path is
+ * matched against them. Requests no pattern covers, such as those of static
+ * files, share the "other" series, and so do methods outside METHODS.
+ */
+public class MetricsFilter implements Filter {
+
+    static final String OTHER_PATH = "other";
+    static final String OTHER_METHOD = "other";
+    static final Set<String> METHODS = new HashSet<>(Arrays.asList(
+        "GET", "POST", "PUT", "DELETE", "HEAD", "OPTIONS"));
+
+    private Set<String> patterns = Collections.emptySet();
+
+    @Override
+    public void init(FilterConfig config) {
+        Set<String> registered = new HashSet<>();
+        for (ServletRegistration registration:
+            config.getServletContext().getServletRegistrations().values()) {
+            registered.addAll(registration.getMappings());
+        }
+        patterns = registered;
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response,
+        FilterChain chain) throws IOException, ServletException {
+        if (!(request instanceof HttpServletRequest)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        HttpServletResponse httpResponse = (HttpServletResponse) response;
+        Metrics.RequestMetrics metrics = Metrics.getInstance()
+            .getRequestMetrics(getPath(httpRequest), getMethod(httpRequest));
+
+        long start = metrics.started();
+        boolean failed = true;
+        try {
+            chain.doFilter(request, response);
+            failed = false;
+        } finally {
+            if (failed || !request.isAsyncStarted()) {
+                metrics.finished(start, failed || isError(httpResponse));
+            } else {
+                request.getAsyncContext().addListener(
+                    new AsyncMetricsListener(metrics, start, httpResponse));
+            }
+        }
+    }
+
+    /**
+     * Returns the URL pattern the request was mapped with, so paths of one
+     * servlet share a series and unknown paths can't add series.
+     */
+    private String getPath(HttpServletRequest request) {
+        String servletPath = request.getServletPath();
+        if (request.getPathInfo() == null) {
+            if (patterns.contains(servletPath)) {
+                return servletPath;
+            }
+        } else if (patterns.contains(servletPath + "/*")) {
+            return servletPath + "/*";
+        }
+        return OTHER_PATH;
+    }
+
+    /** Returns the method of the request, so made-up methods add no series. */
+    private static String getMethod(HttpServletRequest request) {
+        String method = request.getMethod();
+        return METHODS.contains(method) ? method : OTHER_METHOD;
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    private static boolean isError(HttpServletResponse response) {
+        return response.getStatus() >= 500;
+    }
+
+    /** Records an async request once it is over */
+    private static final class AsyncMetricsListener implements AsyncListener {
+
+        private final Metrics.RequestMetrics metrics;
+        private final long start;
+        private final HttpServletResponse response;
+        private boolean failed;
+
+        AsyncMetricsListener(Metrics.RequestMetrics metrics, long start,
+            HttpServletResponse response) {
+            this.metrics = metrics;
+            this.start = start;
+            this.response = response;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            metrics.finished(start, failed || isError(response));
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            failed = true;
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.google.sps.servlets;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token buckets limiting how often each user may post comments. A user
+ * gets comments.rateLimit.perMinute tokens a minute, up to
+ * comments.rateLimit.burst saved up, and each post takes one.
+ *
+ * Buckets are spread over lock stripes, so posts of different users rarely
+ * wait on each other. A full bucket is the same as no bucket, so full ones
+ * are dropped when a stripe grows, which bounds the memory to the users
+ * posting right now.
+ */
+final class PostRateLimiter {
+
+    static final String RATE_PROPERTY = "comments.rateLimit.perMinute";
+    static final String BURST_PROPERTY = "comments.rateLimit.burst";
+    static final int STRIPES = 64;
+    static final int MAX_BUCKETS_PER_STRIPE = 1024;
+
+    static final double DEFAULT_RATE = 10;
+    static final double DEFAULT_BURST = 5;
+
+    private static final PostRateLimiter INSTANCE = new PostRateLimiter(
+        getProperty(RATE_PROPERTY, DEFAULT_RATE, Double.MIN_VALUE),
+        getProperty(BURST_PROPERTY, DEFAULT_BURST, 1));
+
+    /** Tokens added per nanosecond */
+    private final double rate;
+    private final double burst;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    private final AtomicLong allowed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @throws IllegalArgumentException if perMinute is not positive
+     */
+    PostRateLimiter(double perMinute, double burst) {
+        if (!(perMinute > 0) || Double.isInfinite(perMinute)) {
+            throw new IllegalArgumentException(
+                "perMinute must be positive: " + perMinute);
+        }
+        this.rate = perMinute / TimeUnit.MINUTES.toNanos(1);
+        this.burst = Math.max(1, burst);
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    static PostRateLimiter getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Reads a number of at least min from a system property, or returns the
+     * default if it is unset or invalid.
+     */
+    private static double getProperty(String name, double defaultValue,
+        double min) {
+        String value = System.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            double number = Double.parseDouble(value.trim());
+            if (number >= min && !Double.isInfinite(number)) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below, like an out of range value.
+        }
+        System.err.println("Invalid " + name + ": " + value + ", using "
+            + defaultValue);
+        return defaultValue;
+    }
+
+    /**
+     * Takes a token of the user. Returns 0 if there was one, or else the
+     * nanoseconds until there will be one.
+     */
+    long tryAcquire(String userEmail) {
+        Stripe stripe = stripes[(userEmail.hashCode() & 0x7fffffff)
+            % stripes.length];
+        long now = System.nanoTime();
+        long waitNanos;
+        synchronized (stripe) {
+            Bucket bucket = stripe.buckets.get(userEmail);
+            if (bucket == null) {
+                if (stripe.buckets.size() >= MAX_BUCKETS_PER_STRIPE) {
+                    stripe.dropFullBuckets(now);
+                }
+                bucket = new Bucket(burst, now);
+                stripe.buckets.put(userEmail, bucket);
+            }
+            bucket.refill(now);
+            if (bucket.tokens >= 1) {
+                bucket.tokens -= 1;
+                waitNanos = 0;
+            } else {
+                waitNanos = (long) Math.ceil((1 - bucket.tokens) / rate);
+            }
+        }
+
+        if (waitNanos == 0) {
+            allowed.incrementAndGet();
+        } else {
+            rejected.incrementAndGet();
+        }
+        return waitNanos;
+    }
+
+    long getAllowed() {
+        return allowed.get();
+    }
+
+    long getRejected() {
+        return rejected.get();
+    }
+
+    /** The buckets of the users hashed to one lock; guarded by the stripe */
+    private final class Stripe {
+
+        private final Map<String, Bucket> buckets = new HashMap<>();
+
+        void dropFullBuckets(long now) {
+            Iterator<Bucket> iterator = buckets.values().iterator();
+            while (iterator.hasNext()) {
+                Bucket bucket = iterator.next();
+                bucket.refill(now);
+                if (bucket.tokens >= burst) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    private final class Bucket {
+
+        private double tokens;
+        private long refilledNanos;
+
+        Bucket(double tokens, long now) {
+            this.tokens = tokens;
+            this.refilledNanos = now;
+        }
+
+        void refill(long now) {
+            tokens = Math.min(burst, tokens + (now - refilledNanos) * rate);
+            refilledNanos = now;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.google.sps.servlets;
+
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentRepositories;
+import com.google.sps.data.CommentRepository;
+import com.google.sps.data.PendingComment;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Returns the newest comments across pages, newest first. The per-page
+ * queries are all opened before any is read, so they run concurrently, and
+ * are merged with a heap that reads each page only as far as needed.
+ *
+ * At most MAX_PAGES pages are merged. Without a pages parameter, the first
+ * MAX_PAGES of every page with comments are, from a list refreshed every
+ * PAGES_TTL_MILLIS.
+ */
+@WebServlet("/data/recent")
+public class RecentCommentsServlet extends HttpServlet {
+
+    static final int DEFAULT_COMMENTS_NUMBER = 10;
+    static final int MAX_COMMENTS_NUMBER = 100;
+    static final int MAX_PAGES = 10;
+    static final long PAGES_TTL_MILLIS = 60000;
+
+    /** Pages with comments, and when they were listed; guarded by the class */
+    private static List<String> allPages;
+    private static long allPagesMillis;
+
+    @Override
+    public void doGet(HttpServletRequest request, HttpServletResponse response)
+    throws IOException {
+        int count = DEFAULT_COMMENTS_NUMBER;
+        String countStr = request.getParameter("comments-number");
+        if (countStr != null && !countStr.isEmpty()) {
+            try {
+                count = Integer.parseInt(countStr);
+            } catch (NumberFormatException e) {
+                System.err.println("Could not convert to int: " + countStr);
+            }
+        }
+        if (count <= 0 || count > MAX_COMMENTS_NUMBER) {
+            count = DEFAULT_COMMENTS_NUMBER;
+        }
+
+        CommentRepository repository = CommentRepositories.get();
+        List<String> pages;
+        String pagesStr = request.getParameter("pages");
+        if (pagesStr != null && !pagesStr.isEmpty()) {
+            pages = new ArrayList<>(new LinkedHashSet<>(
+                Arrays.asList(pagesStr.split(","))));
+            if (pages.size() > MAX_PAGES) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                    "At most " + MAX_PAGES + " pages per request");
+                return;
+            }
+        } else {
+            pages = getAllPages(repository);
+            if (pages.size() > MAX_PAGES) {
+                pages = pages.subList(0, MAX_PAGES);
+            }
+        }
+
+        String currentUserEmail = null;
+        UserService userService = UserServiceFactory.getUserService();
+        if (userService.getCurrentUser() != null) {
+            currentUserEmail = userService.getCurrentUser().getEmail();
+        }
+
+        // Open every page first; reading starts only once all are in flight.
+        PriorityQueue<PageHead> heads = new PriorityQueue<>();
+        List<PageHead> opened = new ArrayList<>();
+        for (String page: pages) {
+            opened.add(new PageHead(page, openPage(repository, page, count)));
+        }
+        for (PageHead head: opened) {
+            if (head.advance()) {
+                heads.add(head);
+            }
+        }
+
+        response.setContentType("application/json;");
+        JsonWriter writer = new JsonWriter(response.getWriter());
+        writer.beginObject();
+        writer.name("comments");
+        writer.beginArray();
+        for (int i = 0; i < count && !heads.isEmpty(); i++) {
+            PageHead head = heads.poll();
+            writer.beginObject();
+            writer.name("page").value(head.page);
+            writer.name("comment");
+            CommentFeed.writeComment(writer, head.comment, currentUserEmail);
+            writer.endObject();
+            if (head.advance()) {
+                heads.add(head);
+            }
+        }
+        writer.endArray();
+        writer.endObject();
+        writer.flush();
+    }
+
+    /**
+     * Returns every page with comments, listed at most PAGES_TTL_MILLIS ago.
+     */
+    private static synchronized List<String> getAllPages(
+        CommentRepository repository) {
+        long now = System.currentTimeMillis();
+        if (allPages == null || now - allPagesMillis > PAGES_TTL_MILLIS) {
+            allPages = Collections.unmodifiableList(
+                new ArrayList<>(repository.getPages()));
+            allPagesMillis = now;
+        }
+        return allPages;
+    }
+
+    /**
+     * Returns the page's newest comments: those still in the write-behind
+     * queue, then the stored ones that are not also pending.
+     */
+    private Iterator<Comment> openPage(CommentRepository repository,
+        String page, int count) {
+        List<Comment> pending = new ArrayList<>();
+        Set<String> pendingIds = new HashSet<>();
+        WriteBehindQueue writeBehindQueue = WriteBehindQueue.getInstance();
+        if (writeBehindQueue.isEnabled()) {
+            for (PendingComment comment: writeBehindQueue.getPending(page)) {
+                pending.add(comment.toComment());
+                pendingIds.add(comment.getId());
+            }
+        }
+        final Iterator<Comment> stored = repository.query(page, count, null);
+        final Iterator<Comment> newest = pending.iterator();
+
+        return new Iterator<Comment>() {
+            private Comment next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null) {
+                    if (newest.hasNext()) {
+                        next = newest.next();
+                    } else if (stored.hasNext()) {
+                        Comment comment = stored.next();
+                        if (!pendingIds.contains(comment.getId())) {
+                            next = comment;
+                        }
+                    } else {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public Comment next() {
+                hasNext();
+                Comment comment = next;
+                next = null;
+                return comment;
+            }
+        };
+    }
+
+    /** The newest comment of a page not yet merged */
+    private static final class PageHead implements Comparable<PageHead> {
+
+        private final String page;
+        private final Iterator<Comment> comments;
+        private Comment comment;
+
+        PageHead(String page, Iterator<Comment> comments) {
+            this.page = page;
+            this.comments = comments;
+        }
+
+        /**
+         * Moves to the page's next comment. Returns false when the page is
+         * exhausted or a comment can't be read.
+         */
+        boolean advance() {
+            try {
+                comment = comments.hasNext() ? comments.next() : null;
+            } catch (ClassCastException e) {
+                System.err.println("Could not cast entry property");
+                comment = null;
+            }
+            return comment != null;
+        }
+
+        /** Newest first */
+        @Override
+        public int compareTo(PageHead other) {
+            return getTime(other.comment.getDate())
+                .compareTo(getTime(comment.getDate()));
+        }
+
+        private static Date getTime(Date date) {
+            return date == null ? new Date(0) : date;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.google.sps.servlets;
+
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentIterator;
+import com.google.sps.data.CommentRepositories;
+import com.google.sps.data.CommentRepository;
+import com.google.sps.data.CommentSearchIndex;
+import com.google.sps.data.PageVersions;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Returns the comments of a page that best match the query, from the
+ * in-memory search index, e.g. {"comments": [...], "complete": true}.
+ *
+ * Each instance indexes a page from its newest MAX_INDEXED_PER_PAGE
+ * comments, and indexes it again once the page's version shows a change
+ * made by any instance. Older comments of a larger page are not searched,
+ * and "complete" is false. Every hit is read back from the repository
+ * before it is returned, so a comment deleted since the page was indexed
+ * is never returned.
+ */
+@WebServlet("/data/search")
+public class SearchServlet extends HttpServlet {
+
+    static final int DEFAULT_RESULTS_NUMBER = 10;
+    static final int MAX_RESULTS_NUMBER = 100;
+    /** Bounds the scan that indexes a page */
+    static final int MAX_INDEXED_PER_PAGE = 1000;
+    /** Searches again after dropping deleted hits, at most this often */
+    static final int MAX_SEARCH_ATTEMPTS = 3;
+
+    /** Version of each page when it was indexed */
+    private static final ConcurrentMap<String, IndexedPage> indexedPages =
+        new ConcurrentHashMap<>();
+    /** Lock of each page, so a page's scan only delays its own searches */
+    private static final ConcurrentMap<String, Object> pageLocks =
+        new ConcurrentHashMap<>();
+
+    @Override
+    public void doGet(HttpServletRequest request, HttpServletResponse response)
+    throws IOException {
+        String page = request.getParameter("page");
+        String query = request.getParameter("q");
+        if (page == null || query == null) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                "Missing page or q");
+            return;
+        }
+
+        int k = DEFAULT_RESULTS_NUMBER;
+        String kStr = request.getParameter("k");
+        if (kStr != null && !kStr.isEmpty()) {
+            try {
+                k = Math.min(MAX_RESULTS_NUMBER, Integer.parseInt(kStr));
+            } catch (NumberFormatException e) {
+                System.err.println("Could not convert to int: " + kStr);
+            }
+        }
+
+        IndexedPage indexed = indexPage(page);
+        List<Comment> comments = search(page, query, k);
+
+        String currentUserEmail = null;
+        UserService userService = UserServiceFactory.getUserService();
+        if (userService.getCurrentUser() != null) {
+            currentUserEmail = userService.getCurrentUser().getEmail();
+        }
+
+        response.setContentType("application/json;");
+        JsonWriter writer = new JsonWriter(response.getWriter());
+        writer.beginObject();
+        writer.name("comments");
+        writer.beginArray();
+        for (Comment comment: comments) {
+            CommentFeed.writeComment(writer, comment, currentUserEmail);
+        }
+        writer.endArray();
+        writer.name("complete").value(indexed.isComplete);
+        writer.endObject();
+        writer.flush();
+    }
+
+    /**
+     * Returns the best hits of the index that are still stored, in their
+     * stored version. Hits deleted since the page was indexed are dropped
+     * from the index, and the search is run again to fill their places.
+     */
+    private static List<Comment> search(String page, String query, int k) {
+        CommentRepository repository = CommentRepositories.get();
+        CommentSearchIndex index = CommentSearchIndex.getInstance();
+        List<Comment> stored = new ArrayList<>();
+        for (int attempt = 1; attempt <= MAX_SEARCH_ATTEMPTS; attempt++) {
+            stored.clear();
+            boolean dropped = false;
+            for (Comment hit: index.search(page, query, k)) {
+                Comment comment = repository.get(page, hit.getId());
+                if (comment == null) {
+                    index.remove(page, hit.getId());
+                    dropped = true;
+                } else {
+                    stored.add(comment);
+                }
+            }
+            if (!dropped) {
+                break;
+            }
+        }
+        return stored;
+    }
+
+    /**
+     * Indexes the newest comments of the page, unless they were indexed at
+     * its current version.
+     */
+    private static IndexedPage indexPage(String page) {
+        String version = PageVersions.getInstance().get(page);
+        IndexedPage indexed = indexedPages.get(page);
+        if (indexed != null && indexed.version.equals(version)) {
+            return indexed;
+        }
+        synchronized (pageLocks.computeIfAbsent(page, name -> new Object())) {
+            indexed = indexedPages.get(page);
+            if (indexed != null && indexed.version.equals(version)) {
+                return indexed;
+            }
+            CommentRepository repository = CommentRepositories.get();
+            List<Comment> newest = new ArrayList<>();
+            // One more than indexed tells whether the page has older ones.
+            CommentIterator results = repository.query(page,
+                MAX_INDEXED_PER_PAGE + 1, null);
+            while (results.hasNext()) {
+                newest.add(results.next());
+            }
+            boolean isComplete = newest.size() <= MAX_INDEXED_PER_PAGE;
+            if (!isComplete) {
+                newest.remove(newest.size() - 1);
+            }
+
+            // Oldest first, so the newest comments are the last to be
+            // evicted. Writes made since the version was read change it
+            // again, so they are indexed by the next search.
+            Collections.reverse(newest);
+            CommentSearchIndex index = CommentSearchIndex.getInstance();
+            index.removePage(page);
+            for (Comment comment: newest) {
+                index.add(page, comment);
+            }
+            indexed = new IndexedPage(version, isComplete);
+            indexedPages.put(page, indexed);
+            return indexed;
+        }
+    }
+
+    /** The version a page was indexed at */
+    private static final class IndexedPage {
+
+        private final String version;
+        /** Whether every comment of the page was indexed */
+        private final boolean isComplete;
+
+        IndexedPage(String version, boolean isComplete) {
+            this.version = version;
+            this.isComplete = isComplete;
+        }
+    }
+}
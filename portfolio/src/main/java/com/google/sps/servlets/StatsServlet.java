@@ -0,0 +1,103 @@
+package com.google.sps.servlets;
+
+import com.google.sps.data.CommentCache;
+import com.google.sps.data.CommentSearchIndex;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.gson.Gson;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Reports the counters of the in-process comment cache, the write-behind
+ * queue, the search index, the comment streams, the image pipeline and
+ * the post rate limiter as JSON, for admins.
+ */
+@WebServlet("/stats")
+public class StatsServlet extends HttpServlet {
+
+    @Override
+    public void doGet(HttpServletRequest request, HttpServletResponse response)
+    throws IOException {
+        UserService userService = UserServiceFactory.getUserService();
+        if (!userService.isUserLoggedIn() || !userService.isUserAdmin()) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+
+        CommentCache cache = CommentCache.getInstance();
+        Map<String, Object> cacheStats = new LinkedHashMap<>();
+        cacheStats.put("hits", cache.getHits());
+        cacheStats.put("misses", cache.getMisses());
+        cacheStats.put("evictions", cache.getEvictions());
+        cacheStats.put("size", cache.getSize());
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("commentCache", cacheStats);
+
+        WriteBehindQueue queue = WriteBehindQueue.getInstance();
+        Map<String, Object> writeBehindStats = new LinkedHashMap<>();
+        writeBehindStats.put("enabled", queue.isEnabled());
+        writeBehindStats.put("queueDepth", queue.getQueueDepth());
+        writeBehindStats.put("flushedComments", queue.getFlushedComments());
+        writeBehindStats.put("flushes", queue.getFlushes());
+        writeBehindStats.put("failedFlushes", queue.getFailedFlushes());
+        writeBehindStats.put("lastFlushMillis", queue.getLastFlushMillis());
+        writeBehindStats.put("maxFlushMillis", queue.getMaxFlushMillis());
+        writeBehindStats.put("deadLetteredComments",
+            queue.getDeadLetteredComments());
+        stats.put("writeBehind", writeBehindStats);
+
+        CommentSearchIndex index = CommentSearchIndex.getInstance();
+        Map<String, Object> searchStats = new LinkedHashMap<>();
+        searchStats.put("comments", index.getSize());
+        searchStats.put("postings", index.getPostings());
+        searchStats.put("evictions", index.getEvictions());
+        stats.put("searchIndex", searchStats);
+
+        CommentStream stream = CommentStream.getInstance();
+        Map<String, Object> streamStats = new LinkedHashMap<>();
+        streamStats.put("enabled", stream.isEnabled());
+        streamStats.put("subscribers", stream.getSubscriberCount());
+        streamStats.put("droppedSubscribers", stream.getDroppedSubscribers());
+        stats.put("commentStream", streamStats);
+
+        ImagePipeline pipeline = ImagePipeline.getInstance();
+        Map<String, Object> pipelineStats = new LinkedHashMap<>();
+        pipelineStats.put("enabled", pipeline.isEnabled());
+        pipelineStats.put("queueDepth", pipeline.getQueueDepth());
+        pipelineStats.put("processedImages", pipeline.getProcessedImages());
+        pipelineStats.put("failedImages", pipeline.getFailedImages());
+        pipelineStats.put("inlineImages", pipeline.getInlineImages());
+        Map<String, Object> stageStats = new LinkedHashMap<>();
+        for (Map.Entry<ImagePipeline.Stage, ImagePipeline.StageTimer> entry:
+            pipeline.getTimers().entrySet()) {
+            Map<String, Object> timerStats = new LinkedHashMap<>();
+            timerStats.put("count", entry.getValue().getCount());
+            timerStats.put("meanMillis", entry.getValue().getMeanMillis());
+            timerStats.put("maxMillis", entry.getValue().getMaxMillis());
+            stageStats.put(entry.getKey().name(), timerStats);
+        }
+        pipelineStats.put("stages", stageStats);
+        stats.put("imagePipeline", pipelineStats);
+
+        PostRateLimiter limiter = PostRateLimiter.getInstance();
+        Map<String, Object> limiterStats = new LinkedHashMap<>();
+        limiterStats.put("allowed", limiter.getAllowed());
+        limiterStats.put("rejected", limiter.getRejected());
+        stats.put("postRateLimiter", limiterStats);
+
+        IdempotencyKeys idempotencyKeys = IdempotencyKeys.getInstance();
+        Map<String, Object> idempotencyStats = new LinkedHashMap<>();
+        idempotencyStats.put("replays", idempotencyKeys.getReplays());
+        stats.put("idempotencyKeys", idempotencyStats);
+
+        response.setContentType("application/json;");
+        response.getWriter().println(new Gson().toJson(stats));
+    }
+}
@@ -18,7 +18,14 @@ public class UserServlet extends HttpServlet {
 
         UserService userService = UserServiceFactory.getUserService();
         response.setContentType("application/json;");
+        writeJson(request, response, getUserJson(userService, page));
+    }
 
+    /**
+     * Returns the login state of the current user as JSON, with the URL to
+     * log in or out that leads back to page.
+     */
+    static String getUserJson(UserService userService, String page) {
         if (userService.isUserLoggedIn()) {
             String userEmail = userService.getCurrentUser().getEmail();
             String urlToRedirectToAfterUserLogsOut = page;
@@ -35,7 +42,7 @@ public class UserServlet extends HttpServlet {
             json += "\"" + userEmail + "\"";
             json += "}";
 
-            response.getWriter().println(json);
+            return json;
         } else {
             String urlToRedirectToAfterUserLogsIn = page;
             String loginUrl = userService.createLoginURL(urlToRedirectToAfterUserLogsIn);
@@ -48,7 +55,19 @@ public class UserServlet extends HttpServlet {
             json += "\"" + loginUrl + "\"";
             json += "}";
 
-            response.getWriter().println(json);
+            return json;
+        }
+    }
+
+    /**
+     * Writes the login state unless the client already has the same one.
+     */
+    private void writeJson(HttpServletRequest request,
+        HttpServletResponse response, String json) throws IOException {
+        if (ConditionalGet.isNotModified(request, response,
+            ConditionalGet.createETag(json))) {
+            return;
         }
+        response.getWriter().println(json);
     }
 }
@@ -0,0 +1,33 @@
+package com.google.sps.servlets;
+
+import java.io.IOException;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+
+/**
+ * Replays the write-behind journal on startup and drains the queue on
+ * shutdown.
+ */
+@WebListener
+public class WriteBehindListener implements ServletContextListener {
+
+    @Override
+    public void contextInitialized(ServletContextEvent event) {
+        try {
+            WriteBehindQueue.getInstance().start();
+        } catch (IOException e) {
+            throw new IllegalStateException(
+                "Could not replay the comment journal", e);
+        }
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent event) {
+        try {
+            WriteBehindQueue.getInstance().stop();
+        } catch (IOException e) {
+            System.err.println("Could not close the comment journal");
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package com.google.sps.servlets;
+
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentJournal;
+import com.google.sps.data.CommentRepositories;
+import com.google.sps.data.CommentRepository;
+import com.google.sps.data.PendingComment;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Optional write-behind mode of comment posts, enabled with the
+ * comments.writeBehind system property. A posted comment is appended to a
+ * local journal and acknowledged, and a background executor later writes
+ * pending comments to the repository in batches. Pending comments are
+ * replayed from the journal on startup.
+ *
+ * Comments get their id from CommentRepository.newId up front, so the id
+ * handed out on post is the id they keep and a replayed put simply
+ * overwrites.
+ *
+ * A batch whose put fails is retried one comment at a time, so one
+ * comment that can't be stored doesn't hold back the others. A comment
+ * that fails MAX_ATTEMPTS flushes is dead-lettered: it is dropped from the
+ * queue and appended to a dead-letter journal next to the journal.
+ *
+ * The background executor needs an environment that allows Datastore calls
+ * outside of requests, such as a manually scaled or standalone instance.
+ */
+final class WriteBehindQueue {
+
+    static final String ENABLED_PROPERTY = "comments.writeBehind";
+    static final String JOURNAL_PROPERTY = "comments.writeBehind.journal";
+    static final int FLUSH_BATCH_SIZE = 500;
+    static final long FLUSH_INTERVAL_MILLIS = 1000;
+    static final int MAX_ATTEMPTS = 5;
+
+    private static final WriteBehindQueue INSTANCE = new WriteBehindQueue(
+        Boolean.getBoolean(ENABLED_PROPERTY),
+        new File(System.getProperty(JOURNAL_PROPERTY,
+            new File(System.getProperty("java.io.tmpdir"),
+                "comments-journal.ndjson").getPath())));
+
+    private final boolean enabled;
+    private final CommentJournal journal;
+    private final CommentJournal deadLetters;
+    /** Comments not yet stored, oldest first; guarded by this */
+    private final LinkedHashMap<String, PendingComment> pending =
+        new LinkedHashMap<>();
+    /** Failed flushes of each pending comment; guarded by this */
+    private final Map<String, Integer> attempts = new HashMap<>();
+    private volatile ScheduledExecutorService executor;
+
+    private final AtomicLong flushedComments = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong failedFlushes = new AtomicLong();
+    private final AtomicLong lastFlushMillis = new AtomicLong();
+    private final AtomicLong maxFlushMillis = new AtomicLong();
+    private final AtomicLong deadLetteredComments = new AtomicLong();
+
+    WriteBehindQueue(boolean enabled, File journalFile) {
+        this.enabled = enabled;
+        this.journal = new CommentJournal(journalFile);
+        this.deadLetters = new CommentJournal(
+            new File(journalFile.getPath() + ".dead"));
+    }
+
+    static WriteBehindQueue getInstance() {
+        return INSTANCE;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Replays the journal and starts flushing in the background.
+     */
+    synchronized void start() throws IOException {
+        if (!enabled || executor != null) {
+            return;
+        }
+        pending.putAll(journal.replay());
+        for (PendingComment comment: pending.values()) {
+            CommentChanges.commentAdded(comment.getPage(), comment.toComment());
+        }
+
+        executor = Executors.newSingleThreadScheduledExecutor();
+        executor.scheduleWithFixedDelay(this::flushAll, 0,
+            FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the background flushes and writes what is still pending.
+     */
+    void stop() throws IOException {
+        ScheduledExecutorService stopping;
+        synchronized (this) {
+            stopping = executor;
+            executor = null;
+        }
+        if (stopping == null) {
+            return;
+        }
+        stopping.shutdown();
+        try {
+            stopping.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushAll();
+        synchronized (this) {
+            journal.close();
+            deadLetters.close();
+        }
+    }
+
+    /**
+     * Durably records the comment. Once this returns it is safe to
+     * acknowledge the post.
+     */
+    void enqueue(PendingComment comment) throws IOException {
+        boolean isBatchFull;
+        synchronized (this) {
+            journal.appendPut(comment);
+            pending.put(comment.getId(), comment);
+            isBatchFull = pending.size() >= FLUSH_BATCH_SIZE;
+        }
+        CommentChanges.commentAdded(comment.getPage(), comment.toComment());
+
+        ScheduledExecutorService current = executor;
+        if (isBatchFull && current != null) {
+            current.execute(this::flushAll);
+        }
+    }
+
+    /**
+     * Drops a pending comment, so a flush can't bring it back after it was
+     * deleted. Returns true if it was pending.
+     */
+    boolean remove(String id) throws IOException {
+        synchronized (this) {
+            if (pending.remove(id) == null) {
+                return false;
+            }
+            attempts.remove(id);
+            journal.appendAck(id);
+            journal.sync();
+        }
+        return true;
+    }
+
+    /**
+     * Drops every pending comment of the page.
+     */
+    void removePage(String page) throws IOException {
+        synchronized (this) {
+            Iterator<PendingComment> comments = pending.values().iterator();
+            while (comments.hasNext()) {
+                PendingComment comment = comments.next();
+                if (comment.getPage().equals(page)) {
+                    comments.remove();
+                    attempts.remove(comment.getId());
+                    journal.appendAck(comment.getId());
+                }
+            }
+            journal.sync();
+        }
+    }
+
+    /**
+     * Returns the pending comments of the page, newest first.
+     */
+    synchronized List<PendingComment> getPending(String page) {
+        List<PendingComment> comments = new ArrayList<>();
+        for (PendingComment comment: pending.values()) {
+            if (comment.getPage().equals(page)) {
+                comments.add(0, comment);
+            }
+        }
+        return comments;
+    }
+
+    synchronized int getQueueDepth() {
+        return pending.size();
+    }
+
+    long getFlushedComments() {
+        return flushedComments.get();
+    }
+
+    long getFlushes() {
+        return flushes.get();
+    }
+
+    long getFailedFlushes() {
+        return failedFlushes.get();
+    }
+
+    long getLastFlushMillis() {
+        return lastFlushMillis.get();
+    }
+
+    long getMaxFlushMillis() {
+        return maxFlushMillis.get();
+    }
+
+    long getDeadLetteredComments() {
+        return deadLetteredComments.get();
+    }
+
+    /**
+     * Writes pending comments in batches until none are left or a comment
+     * fails. Failed comments stay pending and are retried on the next run.
+     */
+    private void flushAll() {
+        try {
+            boolean hasMore = true;
+            while (hasMore) {
+                hasMore = flushBatch();
+            }
+        } catch (RuntimeException | IOException e) {
+            failedFlushes.incrementAndGet();
+            System.err.println("Could not flush pending comments: "
+                + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the oldest pending comments with one put per page, or one put
+     * per comment if that fails. Returns true if more comments are left and
+     * none of the batch failed.
+     */
+    private boolean flushBatch() throws IOException {
+        List<PendingComment> batch = new ArrayList<>();
+        synchronized (this) {
+            for (PendingComment comment: pending.values()) {
+                if (batch.size() == FLUSH_BATCH_SIZE) {
+                    break;
+                }
+                batch.add(comment);
+            }
+        }
+        if (batch.isEmpty()) {
+            return false;
+        }
+
+        long start = System.currentTimeMillis();
+        Map<String, List<PendingComment>> byPage = new LinkedHashMap<>();
+        for (PendingComment comment: batch) {
+            byPage.computeIfAbsent(comment.getPage(), page -> new ArrayList<>())
+                .add(comment);
+        }
+        CommentRepository repository = CommentRepositories.get();
+        List<PendingComment> stored = new ArrayList<>();
+        List<PendingComment> failed = new ArrayList<>();
+        for (Map.Entry<String, List<PendingComment>> page: byPage.entrySet()) {
+            List<Comment> comments = new ArrayList<>();
+            for (PendingComment comment: page.getValue()) {
+                comments.add(comment.toComment());
+            }
+            try {
+                repository.save(page.getKey(), comments);
+                stored.addAll(page.getValue());
+            } catch (RuntimeException e) {
+                System.err.println("Could not flush pending comments of "
+                    + page.getKey() + ", retrying one by one: "
+                    + e.getMessage());
+                saveEach(repository, page.getValue(), stored, failed);
+            }
+        }
+
+        // Readers drop pending comments that the repository already returns,
+        // so the cache is invalidated before the comments stop being pending.
+        for (String page: byPage.keySet()) {
+            CommentChanges.pageChanged(page);
+        }
+
+        // A comment deleted while its batch was being written is no longer
+        // pending, and has to be deleted again.
+        List<PendingComment> deleted = new ArrayList<>();
+        List<PendingComment> dead = new ArrayList<>();
+        boolean hasMore;
+        synchronized (this) {
+            for (PendingComment comment: stored) {
+                attempts.remove(comment.getId());
+                if (pending.remove(comment.getId()) == null) {
+                    deleted.add(comment);
+                } else {
+                    journal.appendAck(comment.getId());
+                }
+            }
+            for (PendingComment comment: failed) {
+                if (!pending.containsKey(comment.getId())) {
+                    attempts.remove(comment.getId());
+                } else if (attempts.merge(comment.getId(), 1, Integer::sum)
+                    >= MAX_ATTEMPTS) {
+                    attempts.remove(comment.getId());
+                    pending.remove(comment.getId());
+                    deadLetters.appendPut(comment);
+                    journal.appendAck(comment.getId());
+                    dead.add(comment);
+                }
+            }
+            if (pending.isEmpty()) {
+                journal.truncate();
+            } else {
+                journal.sync();
+            }
+            hasMore = failed.isEmpty() && !pending.isEmpty();
+        }
+        for (PendingComment comment: deleted) {
+            repository.delete(comment.getPage(), comment.getId());
+            CommentChanges.pageChanged(comment.getPage());
+        }
+        for (PendingComment comment: dead) {
+            System.err.println("Dead-lettered pending comment " + comment.getId()
+                + " of " + comment.getPage() + " after " + MAX_ATTEMPTS
+                + " failed flushes");
+            CommentChanges.pageChanged(comment.getPage());
+        }
+
+        long elapsed = System.currentTimeMillis() - start;
+        flushes.incrementAndGet();
+        flushedComments.addAndGet(stored.size());
+        if (!failed.isEmpty()) {
+            failedFlushes.incrementAndGet();
+        }
+        deadLetteredComments.addAndGet(dead.size());
+        lastFlushMillis.set(elapsed);
+        maxFlushMillis.accumulateAndGet(elapsed, Math::max);
+        return hasMore;
+    }
+
+    /**
+     * Writes each comment of a page with its own put, adding it to stored or
+     * failed.
+     */
+    private void saveEach(CommentRepository repository,
+        List<PendingComment> comments, List<PendingComment> stored,
+        List<PendingComment> failed) {
+        for (PendingComment comment: comments) {
+            try {
+                repository.save(comment.getPage(),
+                    Collections.singletonList(comment.toComment()));
+                stored.add(comment);
+            } catch (RuntimeException e) {
+                System.err.println("Could not flush pending comment "
+                    + comment.getId() + ": " + e.getMessage());
+                failed.add(comment);
+            }
+        }
+    }
+}
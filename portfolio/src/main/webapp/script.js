@@ -13,34 +13,160 @@
 // limitations under the License.
 
 
+/** Cursor of the next batch of comments, or null at the end of the feed. */
+let nextCursor = null;
+
 /**
  * Fetches comments from the servers and adds them to the DOM.
  */
 function getComments() {
+	document.getElementById('comments-container').innerHTML = '';
+	nextCursor = null;
+	fetchComments();
+}
+
+/**
+ * Fetches the next batch of comments and appends them to the DOM.
+ */
+function loadMoreComments() {
+	if (nextCursor) {
+		fetchComments();
+	}
+}
+
+/**
+ * Fetches one batch of comments, starting at nextCursor if it is set.
+ */
+function fetchComments() {
 	const numberEl = document.getElementById("comments-number");
 	const value = numberEl.options[numberEl.selectedIndex].value;
 	const pageEl = document.getElementById("page");
 	const page = pageEl.value;
 
-	fetch('/data' + '?comments-number=' + value + '&page=' + page).
+	let queryStr = '?comments-number=' + value + '&page=' + page;
+	if (nextCursor) {
+		queryStr += '&cursor=' + encodeURIComponent(nextCursor);
+	}
+
+	fetch('/data' + queryStr).
 	then(response => response.json())
-		.then((comments) => {
-			const commentListElement = document
-				.getElementById('comments-container');
+		.then(showComments);
+}
+
+/**
+ * Appends a batch of comments to the DOM and remembers where the next batch
+ * starts.
+ */
+function showComments(commentPage) {
+	const commentListElement = document.getElementById('comments-container');
 
-			commentListElement.innerHTML = '';
-			comments.forEach((comment) => {
-				let date = new Date(comment.date);
-				commentListElement.appendChild(
-					createListElement(comment.userName, comment.userEmail,
-						date.getMonth() + '/' + date.getDate() + '/' +
-						date.getFullYear(), comment.content, comment.emotion,
-						comment.isAbleToDelete, comment.id, comment.imageUrl));
-			})
+	commentPage.comments.forEach((comment) => {
+		// It may already have been pushed by the comment stream.
+		if (!document.getElementById('comment-' + comment.id)) {
+			commentListElement.appendChild(renderComment(comment));
+		}
+	})
+
+	nextCursor = commentPage.cursor || null;
+	document.getElementById('load-more-comments').style.display =
+		nextCursor ? 'block' : 'none';
+}
+
+/**
+ * Fetches the number of comments of the page and shows it next to the list.
+ */
+function getCommentCount() {
+	const page = document.getElementById("page").value;
+	fetch('/data/count?page=' + encodeURIComponent(page)).
+	then(response => response.json())
+		.then((commentCount) => {
+			document.getElementById('comments-count').innerText =
+				commentCount.count === 1 ? '1 comment' :
+				commentCount.count + ' comments';
+		});
+}
 
+/**
+ * Fetches the login state and the first batch of comments in one request.
+ */
+function bootstrap() {
+	const numberEl = document.getElementById("comments-number");
+	const value = numberEl.options[numberEl.selectedIndex].value;
+	const pageEl = document.getElementById("page");
+	const page = pageEl.value;
+
+	document.getElementById('comments-container').innerHTML = '';
+	nextCursor = null;
+	fetch('/bootstrap?comments-number=' + value + '&page=' + page).
+	then(response => response.json())
+		.then((state) => {
+			showLoginState(state.user);
+			showComments(state);
 		});
 }
 
+/**
+ * Creates the list element of a comment received from the server.
+ */
+function renderComment(comment) {
+	let date = new Date(comment.date);
+	return createListElement(comment.userName, comment.userEmail,
+		date.getMonth() + '/' + date.getDate() + '/' +
+		date.getFullYear(), comment.content, comment.emotion,
+		comment.isAbleToDelete, comment.id, comment.imageUrl,
+		comment.thumbnailUrl);
+}
+
+/**
+ * Subscribes to the comments posted to and deleted from this page, so they
+ * show up without fetching the comments again.
+ */
+function subscribeComments() {
+	if (!window.EventSource) {
+		return;
+	}
+	const page = document.getElementById("page").value;
+	const stream = new EventSource('/data/stream?page=' +
+		encodeURIComponent(page));
+
+	stream.addEventListener('comment', (event) => {
+		const comment = JSON.parse(event.data);
+		if (!document.getElementById('comment-' + comment.id)) {
+			const commentListElement = document
+				.getElementById('comments-container');
+			commentListElement.insertBefore(renderComment(comment),
+				commentListElement.firstChild);
+		}
+		getCommentCount();
+	});
+	// The comment changed, such as when its image is ready.
+	stream.addEventListener('update', (event) => {
+		const comment = JSON.parse(event.data);
+		const commentEl = document.getElementById('comment-' + comment.id);
+		if (commentEl) {
+			commentEl.replaceWith(renderComment(comment));
+		}
+	});
+	stream.addEventListener('delete', (event) => {
+		const commentEl = document.getElementById('comment-' +
+			JSON.parse(event.data).id);
+		if (commentEl) {
+			commentEl.remove();
+		}
+		getCommentCount();
+	});
+	stream.addEventListener('clear', () => {
+		document.getElementById('comments-container').innerHTML = '';
+		nextCursor = null;
+		document.getElementById('load-more-comments').style.display = 'none';
+		getCommentCount();
+	});
+	// Too many changes were missed while disconnected.
+	stream.addEventListener('reset', () => {
+		getComments();
+	});
+}
+
 /**
  * Fetches delete-data, deletes all commennts
  */
@@ -61,11 +187,13 @@ function deleteComments(id) {
 }
 
 /** 
- * Creates an <li> element containing author, date, comment and emotion emoji.
+ * Creates an <li> element containing author, date, comment, emotion emoji
+ * and image thumbnail.
  */
 function createListElement(userName, userEmail, date, text,
-	emotion, isAbleToDelete, id, imageUrl) {
+	emotion, isAbleToDelete, id, imageUrl, thumbnailUrl) {
 	const liElement = document.createElement('li');
+	liElement.id = 'comment-' + id;
 	const containerDiv = document.createElement('div');
 	const emotionEl = document.createElement('div');
 
@@ -111,34 +239,36 @@ function createListElement(userName, userEmail, date, text,
 	liElement.appendChild(containerDiv);
 	const textNode = document.createTextNode(text);
 	liElement.appendChild(textNode);
-    // TODO: Add style to image element
-	const imageUrlEl = document.createElement('img');
-	imageUrlEl.src = imageUrl;
-	liElement.appendChild(imageUrlEl);
+	// The small thumbnail links to the full-size image.
+	if (imageUrl) {
+		const imageLinkEl = document.createElement('a');
+		imageLinkEl.href = imageUrl;
+		const imageUrlEl = document.createElement('img');
+		imageUrlEl.className = 'comment-thumbnail';
+		imageUrlEl.loading = 'lazy';
+		imageUrlEl.src = thumbnailUrl || imageUrl;
+		imageLinkEl.appendChild(imageUrlEl);
+		liElement.appendChild(imageLinkEl);
+	}
 
 	return liElement;
 }
 
-/** 
- * Checks if the user is logged in and shows comment submission form.
+/**
+ * Shows the comment submission form if the user is logged in.
  */
-async function checkLogin() {
-	var page = window.location.pathname;
-	const queryStr = 'page=' + page;
-	fetch('/user?' + queryStr).then(response => response.json())
-		.then((user) => {
-			if (user.loggedin === 'true') {
-				const commentsForm = document.getElementById('comments-form');
-				commentsForm.style.display = 'block';
-				const userLoginForm = document.getElementById('user-login');
-				userLoginForm.style.display = 'none';
-
-				const userLogoutForm = document.getElementById('user-logout');
-				userLogoutForm.style.display = 'block';
-				const userLogoutButton = document.getElementById('logout-button');
-				userLogoutButton.href = user.logoutUrl;
-			}
-		});
+function showLoginState(user) {
+	if (user.loggedin === 'true') {
+		const commentsForm = document.getElementById('comments-form');
+		commentsForm.style.display = 'block';
+		const userLoginForm = document.getElementById('user-login');
+		userLoginForm.style.display = 'none';
+
+		const userLogoutForm = document.getElementById('user-logout');
+		userLogoutForm.style.display = 'block';
+		const userLogoutButton = document.getElementById('logout-button');
+		userLogoutButton.href = user.logoutUrl;
+	}
 }
 
 /** 
@@ -160,9 +290,28 @@ function login() {
  * Calls functions when page is loaded.
  */
 function start() {
-	checkLogin();
-	getComments();
+	subscribeComments();
+	bootstrap();
+	getCommentCount();
 	blobUpload();
+	setIdempotencyKey();
+}
+
+/**
+ * Gives the comment form a random key, so the server stores a form that is
+ * submitted again only once. A new key comes with the page the server
+ * redirects to.
+ */
+function setIdempotencyKey() {
+	const keyInput = document.getElementById('idempotency-key');
+	if (keyInput === null) {
+		return;
+	}
+	const bytes = new Uint8Array(16);
+	window.crypto.getRandomValues(bytes);
+	keyInput.value = Array.from(bytes)
+		.map((byte) => byte.toString(16).padStart(2, '0'))
+		.join('');
 }
 
 function blobUpload() {